@@ -0,0 +1,108 @@
+package gov.usgs.volcanoes.valve3;
+
+import gov.usgs.volcanoes.valve3.data.DataHandler;
+import gov.usgs.volcanoes.valve3.data.DataSourceDescriptor;
+import gov.usgs.volcanoes.valve3.data.MetadataCache;
+import gov.usgs.volcanoes.valve3.data.VDXClientPool;
+import gov.usgs.volcanoes.valve3.result.ErrorMessage;
+import gov.usgs.volcanoes.valve3.result.StatusReport;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Maintenance actions for administrators ("admin" action, command in the "cmd" parameter).
+ * Requests must be POSTed with the "admin.key" of valve3.config in the "key" parameter, so the
+ * key doesn't end up in request logs; without admin.key the action is disabled.
+ *
+ * <p>Commands: "status" reports the state of the vdx connection pools (size, clients in use,
+ * waiting threads, checkout wait histogram, request latency per vdx action) and of the
+ * metadata cache. "invalidate" drops cached metadata of the data source named in "src", or of
+ * all sources if "src" is missing, so that changed channels or ranks show up without waiting
+ * for metadataCache.ttl.
+ */
+public class AdminHandler implements HttpHandler {
+  private static final Logger LOGGER = LoggerFactory.getLogger(AdminHandler.class);
+
+  private final DataHandler dataHandler;
+  private final byte[] key;
+
+  /**
+   * Constructor.
+   *
+   * @param dh  data handler
+   * @param key admin key, null disables admin actions
+   */
+  public AdminHandler(DataHandler dh, String key) {
+    dataHandler = dh;
+    this.key = key == null || key.isEmpty() ? null : key.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Check authorization and run the requested command.
+   *
+   * @see HttpHandler#handle
+   */
+  public Object handle(HttpServletRequest request) throws Valve3Exception {
+    if (key == null) {
+      return new ErrorMessage("Admin actions are disabled.");
+    }
+    String k = request.getParameter("key");
+    if (!"POST".equals(request.getMethod()) || k == null
+        || !MessageDigest.isEqual(key, k.getBytes(StandardCharsets.UTF_8))) {
+      LOGGER.warn("Unauthorized admin request from {}", request.getRemoteAddr());
+      return new ErrorMessage("Not authorized.");
+    }
+
+    String cmd = request.getParameter("cmd");
+    if ("status".equals(cmd)) {
+      return status();
+    } else if ("invalidate".equals(cmd)) {
+      return invalidate(request.getParameter("src"));
+    }
+    return new ErrorMessage("Unknown admin command.");
+  }
+
+  /**
+   * Report pool and cache statistics.
+   *
+   * @return status report
+   */
+  private Object status() {
+    StatusReport report = new StatusReport();
+    for (VDXClientPool pool : dataHandler.getVDXClients()) {
+      report.add("vdx." + pool.getName(), pool);
+    }
+    report.add("metadataCache", dataHandler.getMetadataCache());
+    return report;
+  }
+
+  /**
+   * Drop cached metadata.
+   *
+   * @param src data source name, null for all sources
+   * @return status of metadata cache
+   */
+  private Object invalidate(String src) {
+    MetadataCache cache = dataHandler.getMetadataCache();
+    if (src == null) {
+      cache.invalidateAll();
+      LOGGER.info("Metadata cache invalidated");
+    } else {
+      DataSourceDescriptor dsd = dataHandler.getDataSourceDescriptor(src);
+      if (dsd == null || dsd.getVDXSource() == null) {
+        return new ErrorMessage("Unknown data source.");
+      }
+      cache.invalidate(dsd.getVDXClientName(), dsd.getVDXSource());
+      LOGGER.info("Metadata cache invalidated for {}", src);
+    }
+    StatusReport report = new StatusReport();
+    report.add("metadataCache", cache);
+    return report;
+  }
+}
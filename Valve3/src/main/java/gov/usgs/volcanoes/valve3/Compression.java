@@ -0,0 +1,96 @@
+package gov.usgs.volcanoes.valve3;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Gzip content encoding of responses. Compression is used if it is enabled in valve3.config
+ * ("compression") and the client announces gzip support in its Accept-Encoding header.
+ */
+public class Compression {
+  public static final String GZIP = "gzip";
+  public static final int BUFFER_SIZE = 64 * 1024;
+
+  /* responses shorter than this aren't worth compressing */
+  private static final int MIN_LENGTH = 1024;
+
+  private Compression() {}
+
+  /**
+   * Check if the response to a request may be gzip encoded.
+   *
+   * @param request http request
+   * @return true if gzip is enabled and accepted by the client
+   */
+  public static boolean acceptsGzip(HttpServletRequest request) {
+    if (!Valve3.getInstance().isGzipEnabled()) {
+      return false;
+    }
+    String accept = request.getHeader("Accept-Encoding");
+    if (accept == null) {
+      return false;
+    }
+    double gzipQ = -1;
+    double anyQ = -1;
+    for (String token : accept.split(",")) {
+      String[] parts = token.split(";");
+      String coding = parts[0].trim();
+      if (coding.equalsIgnoreCase(GZIP)) {
+        gzipQ = getQuality(parts);
+      } else if (coding.equals("*")) {
+        anyQ = getQuality(parts);
+      }
+    }
+    // an explicit gzip token takes precedence over the wildcard
+    return gzipQ >= 0 ? gzipQ > 0 : anyQ > 0;
+  }
+
+  /**
+   * Get quality value of an Accept-Encoding token.
+   *
+   * @param parts token split at ';', coding first
+   * @return q parameter, 1 if absent, 0 if malformed
+   */
+  private static double getQuality(String[] parts) {
+    double q = 1;
+    for (int i = 1; i < parts.length; i++) {
+      String param = parts[i].trim();
+      if (param.startsWith("q=")) {
+        try {
+          q = Double.parseDouble(param.substring(2));
+        } catch (NumberFormatException e) {
+          q = 0;
+        }
+      }
+    }
+    return Math.max(q, 0);
+  }
+
+  /**
+   * Write text response followed by a newline, gzip encoded if the client accepts it. The
+   * content type must already be set.
+   *
+   * @param request  http request
+   * @param response http response
+   * @param text     response text
+   * @throws IOException if response can't be written
+   */
+  public static void writeText(HttpServletRequest request, HttpServletResponse response,
+      String text) throws IOException {
+    byte[] data = (text + "\n").getBytes(response.getCharacterEncoding());
+    response.addHeader("Vary", "Accept-Encoding");
+    OutputStream os = response.getOutputStream();
+    if (data.length >= MIN_LENGTH && acceptsGzip(request)) {
+      response.setHeader("Content-Encoding", GZIP);
+      os = new GZIPOutputStream(os, BUFFER_SIZE);
+    } else {
+      response.setContentLength(data.length);
+    }
+    os.write(data);
+    os.close();
+  }
+}
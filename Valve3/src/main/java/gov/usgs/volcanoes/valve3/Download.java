@@ -0,0 +1,145 @@
+package gov.usgs.volcanoes.valve3;
+
+import gov.usgs.volcanoes.valve3.result.RawData;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Delivers raw data result files. Result files never change, so they are served with an ETag and
+ * single byte ranges are honored; an interrupted download can be resumed from the address given
+ * in the Content-Location header as long as the result is kept.
+ *
+ * <p>Text files are stored plain. They are gzip encoded while sending if the client accepts gzip
+ * and didn't ask for a range; such responses have their own ETag and don't offer ranges.
+ */
+public class Download {
+
+  private Download() {}
+
+  /**
+   * Send result file, or the requested part of it.
+   *
+   * @param request  http request
+   * @param response http response
+   * @param rd       result to send
+   * @throws IOException if response can't be written
+   */
+  public static void send(HttpServletRequest request, HttpServletResponse response, RawData rd)
+      throws IOException {
+    String filename = rd.getLocalFilename();
+    File file = new File(filename);
+    if (!file.isFile()) {
+      response.sendError(HttpServletResponse.SC_GONE, "Result expired, please request it again.");
+      return;
+    }
+    long size = file.length();
+    String id = ResultStore.getId(filename);
+    String range = request.getHeader("Range");
+    boolean gzip = rd.isCompressible() && range == null && Compression.acceptsGzip(request);
+    String etag = "\"" + id + "-" + size + (gzip ? "-" + Compression.GZIP : "") + "\"";
+
+    response.setContentType("application/octet-stream");
+    response.setHeader("Content-disposition", "attachment;filename=" + rd.getDownloadName());
+    if (rd.isCompressible()) {
+      response.addHeader("Vary", "Accept-Encoding");
+    }
+    if (gzip) {
+      response.setHeader("Content-Encoding", Compression.GZIP);
+    } else {
+      response.setHeader("Accept-Ranges", "bytes");
+    }
+    response.setHeader("ETag", etag);
+    response.setDateHeader("Last-Modified", file.lastModified());
+    response.setHeader("Content-Location", "valve3.jsp?a=result&id=" + id);
+
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch != null && (ifNoneMatch.contains(etag) || ifNoneMatch.trim().equals("*"))) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    if (gzip) {
+      OutputStream os = new GZIPOutputStream(response.getOutputStream(), Compression.BUFFER_SIZE);
+      Valve3.getInstance().getResultStore().copy(filename, os);
+      os.close();
+      return;
+    }
+
+    long start = 0;
+    long end = size - 1;
+    String ifRange = request.getHeader("If-Range");
+    if (range != null && (ifRange == null || ifRange.trim().equals(etag))) {
+      long[] r = parseRange(range, size);
+      if (r != null && r.length == 0) {
+        response.setHeader("Content-Range", "bytes */" + size);
+        response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        return;
+      }
+      if (r != null) {
+        start = r[0];
+        end = r[1];
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + size);
+      }
+    }
+    response.setHeader("Content-Length", Long.toString(end - start + 1));
+
+    OutputStream os = response.getOutputStream();
+    Valve3.getInstance().getResultStore().copy(filename, os, start, end - start + 1);
+    os.flush();
+    os.close();
+  }
+
+  /**
+   * Parse a single byte range.
+   *
+   * @param range value of Range header
+   * @param size  size of file
+   * @return first and last byte position, an empty array if the range can't be satisfied, or
+   *         null if the header is malformed or asks for several ranges (the whole file is sent)
+   */
+  static long[] parseRange(String range, long size) {
+    range = range.trim();
+    if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+      return null;
+    }
+    String spec = range.substring(6).trim();
+    int dash = spec.indexOf('-');
+    if (dash < 0) {
+      return null;
+    }
+    try {
+      String first = spec.substring(0, dash).trim();
+      String last = spec.substring(dash + 1).trim();
+      long start;
+      long end;
+      if (first.isEmpty()) {
+        // suffix range: the last n bytes
+        long n = Long.parseLong(last);
+        if (n <= 0 || size == 0) {
+          return new long[0];
+        }
+        start = Math.max(0, size - n);
+        end = size - 1;
+      } else {
+        start = Long.parseLong(first);
+        end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+        if (start < 0 || (!last.isEmpty() && Long.parseLong(last) < start)) {
+          return null;
+        }
+        if (start >= size) {
+          return new long[0];
+        }
+      }
+      return new long[] {start, end};
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,296 @@
+package gov.usgs.volcanoes.valve3;
+
+import gov.usgs.volcanoes.core.configfile.ConfigFile;
+import gov.usgs.volcanoes.core.util.StringUtils;
+import gov.usgs.volcanoes.valve3.result.ErrorMessage;
+import gov.usgs.volcanoes.valve3.result.ExportJob;
+import gov.usgs.volcanoes.valve3.result.Result;
+
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs raw data exports in the background. A rawData request with "async=t" is submitted as an
+ * export job and answered at once with the job id; the "job" action (job id in the "id"
+ * parameter) reports the state of the job, the number of rows written so far and, once done, the
+ * url of the exported data.
+ *
+ * <p>Jobs run on a bounded pool ("exportJobs.threads" in data.config) with a bounded queue
+ * ("exportJobs.queue"). Each user (remote user or address) and each data source may have at most
+ * "exportJobs.perUser" and "exportJobs.perSource" jobs queued or running. Finished jobs are
+ * forgotten with their exported data.
+ */
+public class ExportJobHandler implements HttpHandler {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ExportJobHandler.class);
+
+  public static final int DEFAULT_THREADS = 2;
+  public static final int DEFAULT_QUEUE = 16;
+  public static final int DEFAULT_PER_USER = 2;
+  public static final int DEFAULT_PER_SOURCE = 2;
+
+  private final RawDataHandler rawDataHandler;
+  private final ThreadPoolExecutor executor;
+  private final int perUser;
+  private final int perSource;
+  private final Map<String, ExportJob> jobs;
+  private final Map<String, Integer> userJobs;
+  private final Map<String, Integer> sourceJobs;
+
+  /**
+   * Constructor.
+   *
+   * @param rdh    handler running the exports
+   * @param config data.config
+   */
+  public ExportJobHandler(RawDataHandler rdh, ConfigFile config) {
+    rawDataHandler = rdh;
+    int threads = Math.max(1,
+        StringUtils.stringToInt(config.getString("exportJobs.threads"), DEFAULT_THREADS));
+    int queue = Math.max(1,
+        StringUtils.stringToInt(config.getString("exportJobs.queue"), DEFAULT_QUEUE));
+    perUser = StringUtils.stringToInt(config.getString("exportJobs.perUser"), DEFAULT_PER_USER);
+    perSource = StringUtils.stringToInt(config.getString("exportJobs.perSource"),
+                                        DEFAULT_PER_SOURCE);
+    LOGGER.info("exportJobs.threads: {}, exportJobs.queue: {}, exportJobs.perUser: {}, "
+                + "exportJobs.perSource: {}", threads, queue, perUser, perSource);
+
+    executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(queue), new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "ExportJob-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+          }
+        });
+    jobs = new ConcurrentHashMap<String, ExportJob>();
+    userJobs = new HashMap<String, Integer>();
+    sourceJobs = new HashMap<String, Integer>();
+  }
+
+  /**
+   * Submit export of a rawData request as a job.
+   *
+   * @param request rawData request
+   * @return ExportJob, or ErrorMessage if the job was refused
+   */
+  public Result submit(HttpServletRequest request) {
+    String user = request.getRemoteUser();
+    if (user == null) {
+      user = request.getRemoteAddr();
+    }
+    Set<String> sourceSet = new LinkedHashSet<String>();
+    int n = StringUtils.stringToInt(request.getParameter("n"), 1);
+    for (int i = 0; i < n; i++) {
+      String src = request.getParameter("src." + i);
+      if (src != null) {
+        sourceSet.add(src);
+      }
+    }
+    String[] sources = sourceSet.toArray(new String[sourceSet.size()]);
+
+    synchronized (this) {
+      if (count(userJobs, user) >= perUser) {
+        return new ErrorMessage("Too many exports running for you, please try again later.");
+      }
+      for (String src : sources) {
+        if (count(sourceJobs, src) >= perSource) {
+          return new ErrorMessage("Too many exports running for " + src
+                                  + ", please try again later.");
+        }
+      }
+      acquire(user, sources, 1);
+    }
+
+    final ExportJob job = new ExportJob(UUID.randomUUID().toString(), user, sources, this);
+    final HttpServletRequest snapshot = new Snapshot(request);
+    jobs.put(job.getId(), job);
+    try {
+      executor.execute(new Runnable() {
+        public void run() {
+          runJob(job, snapshot);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      jobs.remove(job.getId());
+      synchronized (this) {
+        acquire(user, sources, -1);
+      }
+      return new ErrorMessage("Too many exports waiting, please try again later.");
+    }
+    LOGGER.info("Export job {} submitted by {}", job.getId(), user);
+    return job;
+  }
+
+  private void runJob(ExportJob job, HttpServletRequest request) {
+    job.start();
+    Result result = null;
+    try {
+      result = rawDataHandler.export(request, job.getRows());
+      if (result == null) {
+        result = new ErrorMessage("Nothing to export.");
+      }
+    } catch (RuntimeException e) {
+      LOGGER.error("Export job {} failed", job.getId(), e);
+      result = new ErrorMessage("Export failed: " + e.getMessage());
+    } finally {
+      // also reached on errors, so the job never stays running
+      if (result == null) {
+        result = new ErrorMessage("Export failed.");
+      }
+      synchronized (this) {
+        acquire(job.getUser(), job.getSources(), -1);
+      }
+      job.finish(result);
+      LOGGER.info("Export job {} {}, {} rows", job.getId(), job.getState(),
+                  job.getRows().get());
+      Valve3.getInstance().getResultDeleter().addResult(job);
+    }
+  }
+
+  /**
+   * Report state of a job.
+   *
+   * @see HttpHandler#handle
+   */
+  public Object handle(HttpServletRequest request) {
+    String id = request.getParameter("id");
+    ExportJob job = id == null ? null : jobs.get(id);
+    if (job == null) {
+      return new ErrorMessage("Export job expired, please request the export again.");
+    }
+    return job;
+  }
+
+  /**
+   * Forget a finished job.
+   *
+   * @param id job id
+   */
+  public void remove(String id) {
+    jobs.remove(id);
+  }
+
+  /**
+   * Stop running jobs.
+   */
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private static int count(Map<String, Integer> counts, String key) {
+    Integer c = counts.get(key);
+    return c == null ? 0 : c;
+  }
+
+  private void acquire(String user, String[] sources, int delta) {
+    add(userJobs, user, delta);
+    for (String src : sources) {
+      add(sourceJobs, src, delta);
+    }
+  }
+
+  private static void add(Map<String, Integer> counts, String key, int delta) {
+    int c = count(counts, key) + delta;
+    if (c > 0) {
+      counts.put(key, c);
+    } else {
+      counts.remove(key);
+    }
+  }
+
+  /**
+   * Copy of the parts of a request used by an export, which stays valid after the request has
+   * been answered. Headers aren't kept, so the export isn't gzip encoded for the submitting
+   * request; "gz=t" still exports a gzip file.
+   */
+  private static class Snapshot extends HttpServletRequestWrapper {
+    private final Map<String, String[]> parameters;
+    private final String queryString;
+    private final String requestUrl;
+    private final String serverName;
+    private final String remoteAddr;
+    private final String remoteUser;
+
+    Snapshot(HttpServletRequest request) {
+      super(request);
+      parameters = new LinkedHashMap<String, String[]>();
+      // Not using generics because HttpServletRequest is Java 1.4
+      Map map = request.getParameterMap();
+      for (Object k : map.keySet()) {
+        parameters.put((String) k, ((String[]) map.get(k)).clone());
+      }
+      queryString = request.getQueryString();
+      requestUrl = request.getRequestURL().toString();
+      serverName = request.getServerName();
+      remoteAddr = request.getRemoteAddr();
+      remoteUser = request.getRemoteUser();
+    }
+
+    public String getParameter(String name) {
+      String[] values = parameters.get(name);
+      return values == null || values.length == 0 ? null : values[0];
+    }
+
+    public Map<String, String[]> getParameterMap() {
+      return Collections.unmodifiableMap(parameters);
+    }
+
+    public Enumeration<String> getParameterNames() {
+      return Collections.enumeration(parameters.keySet());
+    }
+
+    public String[] getParameterValues(String name) {
+      String[] values = parameters.get(name);
+      return values == null ? null : values.clone();
+    }
+
+    public String getHeader(String name) {
+      return null;
+    }
+
+    public Enumeration<String> getHeaders(String name) {
+      return Collections.enumeration(Collections.<String>emptyList());
+    }
+
+    public String getQueryString() {
+      return queryString;
+    }
+
+    public StringBuffer getRequestURL() {
+      return new StringBuffer(requestUrl);
+    }
+
+    public String getServerName() {
+      return serverName;
+    }
+
+    public String getRemoteAddr() {
+      return remoteAddr;
+    }
+
+    public String getRemoteUser() {
+      return remoteUser;
+    }
+  }
+}
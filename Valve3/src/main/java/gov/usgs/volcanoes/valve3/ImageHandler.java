@@ -0,0 +1,37 @@
+package gov.usgs.volcanoes.valve3;
+
+import gov.usgs.volcanoes.valve3.result.ErrorMessage;
+import gov.usgs.volcanoes.valve3.result.PlotImage;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Delivers plot images kept in memory by the {@link ImageStore} ("img" action, image handle in
+ * the "id" parameter).
+ */
+public class ImageHandler implements HttpHandler {
+  private final ImageStore imageStore;
+
+  /**
+   * Constructor.
+   *
+   * @param store store holding the images
+   */
+  public ImageHandler(ImageStore store) {
+    imageStore = store;
+  }
+
+  /**
+   * Look up the requested image.
+   *
+   * @see HttpHandler#handle
+   */
+  public Object handle(HttpServletRequest request) {
+    String id = request.getParameter("id");
+    PlotImage image = id == null ? null : imageStore.get(id);
+    if (image == null) {
+      return new ErrorMessage("Image expired, please replot.");
+    }
+    return image;
+  }
+}
@@ -0,0 +1,102 @@
+package gov.usgs.volcanoes.valve3;
+
+import gov.usgs.volcanoes.valve3.result.PlotImage;
+
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps rendered plot images in memory between the plot request and the browser's request for
+ * the image, so that plots don't have to pass through temporary files. Images are removed by the
+ * {@link ResultDeleter} together with their plot; if the store grows beyond its size limit the
+ * oldest images are dropped early. Images too large for the store are delivered as files.
+ */
+public class ImageStore {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ImageStore.class);
+
+  public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+  private final long maxBytes;
+  private final LinkedHashMap<String, PlotImage> images;
+  private final SecureRandom random;
+  private long bytes;
+
+  /**
+   * Constructor.
+   *
+   * @param maxBytes maximum total size of stored images
+   */
+  public ImageStore(long maxBytes) {
+    this.maxBytes = maxBytes;
+    images = new LinkedHashMap<String, PlotImage>();
+    random = new SecureRandom();
+    LOGGER.info("imageStore.maxBytes: {}", maxBytes);
+  }
+
+  /**
+   * Store image, dropping the oldest images if needed to make room. Images larger than the
+   * whole store aren't stored.
+   *
+   * @param image image to store
+   * @return handle to retrieve image with, or null if image is too large
+   */
+  public synchronized String put(PlotImage image) {
+    int length = image.getData().length;
+    if (length > maxBytes) {
+      LOGGER.debug("Image of {} bytes exceeds imageStore.maxBytes", length);
+      return null;
+    }
+    Iterator<PlotImage> it = images.values().iterator();
+    while (bytes + length > maxBytes && it.hasNext()) {
+      bytes -= it.next().getData().length;
+      it.remove();
+    }
+
+    byte[] b = new byte[16];
+    random.nextBytes(b);
+    StringBuilder id = new StringBuilder(b.length * 2);
+    for (byte x : b) {
+      id.append(Character.forDigit((x >> 4) & 0xf, 16));
+      id.append(Character.forDigit(x & 0xf, 16));
+    }
+
+    images.put(id.toString(), image);
+    bytes += length;
+    return id.toString();
+  }
+
+  /**
+   * Yield stored image.
+   *
+   * @param id image handle
+   * @return image, or null if unknown or already removed
+   */
+  public synchronized PlotImage get(String id) {
+    return images.get(id);
+  }
+
+  /**
+   * Remove image.
+   *
+   * @param id image handle
+   */
+  public synchronized void remove(String id) {
+    PlotImage image = images.remove(id);
+    if (image != null) {
+      bytes -= image.getData().length;
+    }
+  }
+
+  /**
+   * Yield short description of store state.
+   *
+   * @return statistics string
+   */
+  public synchronized String toString() {
+    return String.format("images=%d bytes=%d", images.size(), bytes);
+  }
+}
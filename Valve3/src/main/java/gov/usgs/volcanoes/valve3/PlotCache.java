@@ -0,0 +1,269 @@
+package gov.usgs.volcanoes.valve3;
+
+import gov.usgs.volcanoes.core.configfile.ConfigFile;
+import gov.usgs.volcanoes.core.util.StringUtils;
+import gov.usgs.volcanoes.valve3.data.DataHandler;
+import gov.usgs.volcanoes.valve3.data.DataSourceDescriptor;
+import gov.usgs.volcanoes.valve3.result.Valve3Plot;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps rendered plots, keyed by a digest of the normalized request parameters, so that
+ * identical plot requests can be answered without querying VDX or rendering again.
+ *
+ * <p>Entries expire after a time-to-live which is configured in data.config, either globally
+ * ("plotCache.ttl") or per data source ("[source].plotCache.ttl"), in seconds. The cache is
+ * bounded both by entry count ("plotCache.maxEntries") and by the total size of the stored
+ * images ("plotCache.maxBytes"); the least recently used entries are evicted first.
+ */
+public class PlotCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(PlotCache.class);
+
+  public static final int DEFAULT_TTL = 0;
+  public static final int DEFAULT_MAX_ENTRIES = 500;
+  public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+  // request parameters which are not component specific but change the rendered plot
+  private static final String[] PLOT_PARAMETERS = {"n", "w", "h", "o", "combine", "tz"};
+
+  private final int defaultTtl;
+  private final int maxEntries;
+  private final long maxBytes;
+  private final LinkedHashMap<String, Entry> entries;
+  private long bytes;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param config data configuration holding the plotCache.* parameters
+   */
+  public PlotCache(ConfigFile config) {
+    defaultTtl = StringUtils.stringToInt(config.getString("plotCache.ttl"), DEFAULT_TTL);
+    maxEntries = StringUtils.stringToInt(config.getString("plotCache.maxEntries"),
+                                         DEFAULT_MAX_ENTRIES);
+    maxBytes = (long) StringUtils.stringToDouble(config.getString("plotCache.maxBytes"),
+                                                 DEFAULT_MAX_BYTES);
+    entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    LOGGER.info("plotCache.ttl: {}, plotCache.maxEntries: {}, plotCache.maxBytes: {}",
+                defaultTtl, maxEntries, maxBytes);
+  }
+
+  /**
+   * Compute cache key for a plot request. The key is a digest of the plot-wide request
+   * parameters and the canonical parameters of every component, so parameter order and
+   * unrelated request parameters do not matter.
+   *
+   * @param request    http request
+   * @param components components parsed from request
+   * @return hex encoded digest
+   */
+  public static String getKey(HttpServletRequest request, List<PlotComponent> components) {
+    StringBuilder sb = new StringBuilder();
+    for (String p : PLOT_PARAMETERS) {
+      sb.append(p).append('=').append(request.getParameter(p)).append('\n');
+    }
+    for (PlotComponent component : components) {
+      sb.append(component.getCanonicalParameters()).append('\n');
+    }
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      byte[] digest = md.digest(sb.toString().getBytes("UTF-8"));
+      StringBuilder key = new StringBuilder(digest.length * 2);
+      for (byte b : digest) {
+        key.append(Character.forDigit((b >> 4) & 0xf, 16));
+        key.append(Character.forDigit(b & 0xf, 16));
+      }
+      return key.toString();
+    } catch (NoSuchAlgorithmException e) {
+      return sb.toString();
+    } catch (UnsupportedEncodingException e) {
+      return sb.toString();
+    }
+  }
+
+  /**
+   * Yield time-to-live for a plot, the shortest of the ttls configured for its components'
+   * data sources.
+   *
+   * @param components components of plot
+   * @param dh         data handler to look up data sources
+   * @return time-to-live in seconds, 0 if plot should not be cached
+   */
+  public int getTtl(List<PlotComponent> components, DataHandler dh) {
+    int ttl = Integer.MAX_VALUE;
+    for (PlotComponent component : components) {
+      int t = defaultTtl;
+      DataSourceDescriptor dsd = dh.getDataSourceDescriptor(component.getSource());
+      if (dsd != null && dsd.getConfig() != null) {
+        t = StringUtils.stringToInt(dsd.getConfig().getString("plotCache.ttl"), defaultTtl);
+      }
+      ttl = Math.min(ttl, t);
+    }
+    return ttl == Integer.MAX_VALUE ? 0 : Math.max(ttl, 0);
+  }
+
+  /**
+   * Yield cached plot.
+   *
+   * @param key cache key
+   * @return entry, or null if not cached or expired
+   */
+  public synchronized Entry get(String key) {
+    Entry entry = entries.get(key);
+    if (entry != null && entry.expires < System.currentTimeMillis()) {
+      remove(key);
+      entry = null;
+    }
+    if (entry == null) {
+      misses.incrementAndGet();
+    } else {
+      hits.incrementAndGet();
+    }
+    return entry;
+  }
+
+  /**
+   * Store rendered plot.
+   *
+   * @param key   cache key
+   * @param entry plot to store
+   */
+  public synchronized void put(String key, Entry entry) {
+    if (entry.size() > maxBytes) {
+      return;
+    }
+    remove(key);
+    entries.put(key, entry);
+    bytes += entry.size();
+
+    // evict expired entries first, then least recently used ones
+    long now = System.currentTimeMillis();
+    Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+    while (it.hasNext()) {
+      Entry e = it.next().getValue();
+      if (e.expires < now) {
+        bytes -= e.size();
+        it.remove();
+        evictions.incrementAndGet();
+      }
+    }
+    it = entries.entrySet().iterator();
+    while (it.hasNext() && (entries.size() > maxEntries || bytes > maxBytes)) {
+      bytes -= it.next().getValue().size();
+      it.remove();
+      evictions.incrementAndGet();
+    }
+  }
+
+  private void remove(String key) {
+    Entry old = entries.remove(key);
+    if (old != null) {
+      bytes -= old.size();
+    }
+  }
+
+  /**
+   * Drop all cached plots.
+   */
+  public synchronized void clear() {
+    entries.clear();
+    bytes = 0;
+  }
+
+  /**
+   * Getter for hit count.
+   *
+   * @return number of requests served from cache
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Getter for miss count.
+   *
+   * @return number of lookups which weren't found in cache
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Getter for eviction count.
+   *
+   * @return number of entries dropped because of size limits or expiration
+   */
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  /**
+   * Yield short description of cache state.
+   *
+   * @return statistics string
+   */
+  public synchronized String toString() {
+    return String.format("entries=%d bytes=%d hits=%d misses=%d evictions=%d",
+                         entries.size(), bytes, hits.get(), misses.get(), evictions.get());
+  }
+
+  /**
+   * Cached plot: rendered image and the plot information needed to rebuild its xml.
+   */
+  public static class Entry {
+    public final byte[] image;
+    public final String title;
+    public final int width;
+    public final int height;
+    public final boolean exportable;
+    public final boolean combineable;
+    public final boolean waveform;
+    public final String content;
+    private final long expires;
+
+    /**
+     * Constructor.
+     *
+     * @param plot  rendered plot
+     * @param image encoded image of plot
+     * @param ttl   time-to-live in seconds
+     */
+    public Entry(Valve3Plot plot, byte[] image, int ttl) {
+      this.image = image;
+      title = plot.getTitle();
+      width = plot.getWidth();
+      height = plot.getHeight();
+      exportable = plot.getExportable();
+      combineable = plot.getCombineable();
+      waveform = plot.getWaveform();
+      content = plot.getContentXml();
+      expires = System.currentTimeMillis() + ttl * 1000L;
+    }
+
+    /**
+     * Yield approximate memory footprint.
+     *
+     * @return size in bytes
+     */
+    public long size() {
+      return image.length + 2L * content.length();
+    }
+  }
+}
@@ -9,6 +9,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.TreeMap;
 
 /**
  * Keeps set of parameters to generate valve plot component. A plot can contain several components.
@@ -33,6 +34,9 @@ public class PlotComponent {
 
   private boolean exportable = false;
 
+  private double timeSnap = 0;
+  private double now = Double.NaN;
+
   /**
    * Constructor.
    *
@@ -274,6 +278,55 @@ public class PlotComponent {
     boxMapHeight = mh;
   }
 
+  /**
+   * Setter for time snapping bucket. When positive, "now" used for relative times is
+   * rounded down to a multiple of this value so that repeated requests for the same
+   * relative window resolve to identical times.
+   *
+   * @param s bucket size in seconds, 0 to disable snapping
+   */
+  public void setTimeSnap(double s) {
+    timeSnap = s;
+  }
+
+  /**
+   * Getter for time snapping bucket.
+   *
+   * @return bucket size in seconds
+   */
+  public double getTimeSnap() {
+    return timeSnap;
+  }
+
+  /**
+   * Yield current time used to resolve relative times. Value is fixed at first call, so that
+   * start and end time of the component agree.
+   *
+   * @return "now" in j2ksec, snapped to bucket if snapping is enabled
+   */
+  public double getNow() {
+    if (Double.isNaN(now)) {
+      now = J2kSec.now();
+      if (timeSnap > 0) {
+        now = Math.floor(now / timeSnap) * timeSnap;
+      }
+    }
+    return now;
+  }
+
+  /**
+   * Check if time window of component is anchored to current time.
+   *
+   * @return true if start or end time is relative or "N"
+   */
+  public boolean isRelativeTime() {
+    return isRelativeTime(params.get("st")) || isRelativeTime(params.get("et"));
+  }
+
+  private static boolean isRelativeTime(String t) {
+    return t != null && (t.equals("N") || t.startsWith("-"));
+  }
+
   /**
    * Compute start time from PlotComponent's parameters.
    *
@@ -319,11 +372,11 @@ public class PlotComponent {
     try {
       if (t.equals("N")) {
         // is refreshable
-        return J2kSec.now();
+        return getNow();
       } else if (t.startsWith("-")) {
         long ms = -Long.parseLong(t);
         if (Double.isNaN(end)) {
-          return J2kSec.now() - ((double) ms / 1000);
+          return getNow() - ((double) ms / 1000);
         } else {
           return end - ((double) ms / 1000);
         }
@@ -412,6 +465,28 @@ public class PlotComponent {
     return sb.toString();
   }
 
+  /**
+   * Yield normalized description of this component: source, box geometry, time zone,
+   * snapped current time for relative windows and parameters in sorted order. Two components
+   * with equal canonical parameters produce the same plot.
+   *
+   * @return canonical parameter string
+   */
+  public String getCanonicalParameters() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("src=").append(source);
+    sb.append(";box=").append(boxX).append(',').append(boxY).append(',').append(boxWidth)
+        .append(',').append(boxHeight).append(',').append(boxMapHeight);
+    sb.append(";tz=").append(df.getTimeZone().getID());
+    if (timeSnap > 0 && isRelativeTime()) {
+      sb.append(";now=").append(getNow());
+    }
+    for (Map.Entry<String, String> e : new TreeMap<String, String>(params).entrySet()) {
+      sb.append(';').append(e.getKey()).append('=').append(e.getValue());
+    }
+    return sb.toString();
+  }
+
   /**
    * Setter for graph's exportability.
    *
@@ -1,9 +1,7 @@
 package gov.usgs.volcanoes.valve3;
 
-import gov.usgs.volcanoes.core.legacy.util.Pool;
 import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.util.StringUtils;
-import gov.usgs.volcanoes.core.util.UtilException;
 import gov.usgs.volcanoes.valve3.Valve3;
 import gov.usgs.volcanoes.valve3.data.DataHandler;
 import gov.usgs.volcanoes.valve3.data.DataSourceDescriptor;
@@ -11,16 +9,23 @@ import gov.usgs.volcanoes.valve3.plotter.ChannelMapPlotter;
 import gov.usgs.volcanoes.valve3.result.ErrorMessage;
 import gov.usgs.volcanoes.valve3.result.Valve3Plot;
 import gov.usgs.volcanoes.vdx.ExportConfig;
-import gov.usgs.volcanoes.vdx.client.VDXClient;
 
-import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -46,6 +51,10 @@ public class PlotHandler implements HttpHandler {
   public static final int MAX_PLOT_HEIGHT = 50000;
 
   private DataHandler dataHandler;
+  private PlotCache plotCache;
+  private ImageStore imageStore;
+  private boolean inMemory;
+  private ExecutorService executor;
 
   /**
    * Constructor.
@@ -54,6 +63,44 @@ public class PlotHandler implements HttpHandler {
    */
   public PlotHandler(DataHandler dh) {
     dataHandler = dh;
+    plotCache = new PlotCache(dh.getConfig());
+
+    inMemory = "memory".equals(dh.getConfig().getString("plotDelivery"));
+    LOGGER.info("plotDelivery: {}", inMemory ? "memory" : "file");
+    imageStore = new ImageStore((long) StringUtils.stringToDouble(
+        dh.getConfig().getString("imageStore.maxBytes"), ImageStore.DEFAULT_MAX_BYTES));
+
+    int threads = StringUtils.stringToInt(dh.getConfig().getString("plotThreads"), 0);
+    if (threads > 0) {
+      LOGGER.info("plotThreads: {}", threads);
+      executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "PlotHandler-" + count.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+  }
+
+  /**
+   * Getter for rendered plot cache.
+   *
+   * @return plot cache
+   */
+  public PlotCache getPlotCache() {
+    return plotCache;
+  }
+
+  /**
+   * Getter for store of images delivered from memory.
+   *
+   * @return image store
+   */
+  public ImageStore getImageStore() {
+    return imageStore;
   }
 
   /**
@@ -78,37 +125,12 @@ public class PlotHandler implements HttpHandler {
         String subsrc = request.getParameter("subsrc." + i);
         component.put("subsrc", subsrc);
       } else {
-        Valve3 v3 = Valve3.getInstance();
-        Map<String, String> params = new LinkedHashMap<String, String>();
-        params.put("source", source);
-        params.put("action", "exportinfo");
-        ExportConfig ec = v3.getExportConfig(source);
-        if (ec == null) {
-          DataSourceDescriptor dsd = dataHandler.getDataSourceDescriptor(source);
-          if (dsd == null) {
-            throw new Valve3Exception("Missing data source for " + source);
-          }
-          ec = v3.getExportConfig("");
-          ec.parameterize(params);
-          Pool<VDXClient> pool = v3.getDataHandler().getVDXClient(dsd.getVDXClientName());
-
-          if (pool == null) {
-            throw new Valve3Exception("Unknown VDX server " + dsd.getVDXClientName()
-                                      + " check .vdx line in data.config");
-          }
-
-          VDXClient cl = pool.checkout();
-          java.util.List<String> ecs = null;
-          try {
-            ecs = cl.getTextData(params);
-          } catch (UtilException e) {
-            ecs = new ArrayList<String>();
-          } finally {
-            pool.checkin(cl);
-          }
-          ec = new ExportConfig(ecs);
-          v3.putExportConfig(source, ec);
+        DataSourceDescriptor dsd = dataHandler.getDataSourceDescriptor(source);
+        if (dsd == null) {
+          throw new Valve3Exception("Missing data source for " + source);
         }
+        ExportConfig ec = Valve3.getInstance().getExportConfig(dsd.getVDXSource(),
+                                                               dsd.getVDXClientName());
         component.setExportable(ec.isExportable());
 
         String strSt = request.getParameter("st.0");
@@ -163,6 +185,7 @@ public class PlotHandler implements HttpHandler {
         throw new Valve3Exception("Illegal y." + i + " parameter.  Must be between 0 and " + h);
       }
 
+      component.setTimeSnap(getTimeSnap(source));
       component.setBoxWidth(w);
       component.setBoxHeight(h);
       component.setBoxMapHeight(mh);
@@ -174,6 +197,22 @@ public class PlotHandler implements HttpHandler {
     return list;
   }
 
+  /**
+   * Yield time snapping bucket for data source: "[source].timeSnap" from data.config, or
+   * global "timeSnap" if not set for source.
+   *
+   * @param source data source name
+   * @return bucket size in seconds, 0 if snapping is disabled
+   */
+  protected double getTimeSnap(String source) {
+    double snap = StringUtils.stringToDouble(dataHandler.getConfig().getString("timeSnap"), 0);
+    DataSourceDescriptor dsd = dataHandler.getDataSourceDescriptor(source);
+    if (dsd != null && dsd.getConfig() != null) {
+      snap = StringUtils.stringToDouble(dsd.getConfig().getString("timeSnap"), snap);
+    }
+    return snap;
+  }
+
   /**
    * Process HttpServletRequest and generate one {@link PlotComponent}.
    *
@@ -225,13 +264,33 @@ public class PlotHandler implements HttpHandler {
       }
 
       Valve3Plot plot = new Valve3Plot(request, components.size());
+      plot.setInMemory(inMemory);
+      int ttl = plotCache.getTtl(components, dataHandler);
+      String key = null;
+      if (ttl > 0) {
+        key = PlotCache.getKey(request, components);
+        PlotCache.Entry entry = plotCache.get(key);
+        if (entry != null) {
+          try {
+            plot.restore(entry);
+            if (plot.isInMemory()) {
+              plot.setImage(entry.image);
+            } else {
+              Valve3.getInstance().getResultStore().write(plot.getLocalFilename(), entry.image);
+            }
+            return publish(plot);
+          } catch (IOException e) {
+            LOGGER.warn("Unable to write cached plot: {}", e.getMessage());
+            plot = new Valve3Plot(request, components.size());
+            plot.setInMemory(inMemory);
+          }
+        }
+      }
+      List<Plotter> plotters = new ArrayList<Plotter>(components.size());
       for (PlotComponent component : components) {
         String source = component.getSource();
         Plotter plotter = null;
         DataSourceDescriptor dsd = null;
-        if (component.getExportable()) {
-          plot.setExportable(true);
-        }
         if (source.equals("channel_map")) {
           plotter = new ChannelMapPlotter();
           dsd = dataHandler.getDataSourceDescriptor(component.get("subsrc"));
@@ -242,6 +301,19 @@ public class PlotHandler implements HttpHandler {
         } else {
           plotter = dataHandler.getDataSourceDescriptor(component.getSource()).getPlotter();
         }
+        plotters.add(plotter);
+      }
+      if (executor != null && components.size() > 1) {
+        prefetch(plotters, components);
+      }
+
+      // render in component order, CombinedPlot draws everything on the last call
+      for (int i = 0; i < components.size(); i++) {
+        PlotComponent component = components.get(i);
+        Plotter plotter = plotters.get(i);
+        if (component.getExportable()) {
+          plot.setExportable(true);
+        }
         if (plotter != null) {
           try {
             plotter.plot(plot, component);
@@ -250,8 +322,18 @@ public class PlotHandler implements HttpHandler {
           }
         }
       }
-      Valve3.getInstance().getResultDeleter().addResult(plot);
-      return plot;
+      if (key != null) {
+        try {
+          byte[] image = plot.isInMemory() ? plot.getImage()
+                                           : Files.readAllBytes(Paths.get(plot.getLocalFilename()));
+          if (image != null) {
+            plotCache.put(key, new PlotCache.Entry(plot, image, ttl));
+          }
+        } catch (IOException e) {
+          LOGGER.warn("Unable to cache plot: {}", e.getMessage());
+        }
+      }
+      return publish(plot);
     } catch (Valve3Exception e) {
       LOGGER.error("{}", e.getMessage());
       return new ErrorMessage(e.getMessage());
@@ -259,12 +341,74 @@ public class PlotHandler implements HttpHandler {
   }
 
   /**
-   * Yield a random file name.
+   * Make rendered plot available for delivery. In-memory images referenced by the xml or html
+   * wrapper are put into the image store; stored images and files are removed later by the
+   * result deleter.
+   *
+   * @param plot rendered plot
+   * @return plot
+   * @throws Valve3Exception if image can't be stored
+   */
+  private Valve3Plot publish(Valve3Plot plot) throws Valve3Exception {
+    try {
+      plot.storeImage(imageStore);
+    } catch (IOException e) {
+      throw new Valve3Exception("Unable to write plot image: " + e.getMessage());
+    }
+    if (!plot.isInMemory() || plot.getOutputType() != Valve3Plot.OutputType.PNG) {
+      Valve3.getInstance().getResultDeleter().addResult(plot);
+    }
+    return plot;
+  }
+
+  /**
+   * Fetch data for all components concurrently.
    *
-   * @param extension filename extension
-   * @return random file name in the img/ directory with .png extension
+   * @param plotters   plotters, one per component, may contain nulls
+   * @param components plot components
+   * @throws Valve3Exception if fetching data for any component failed
    */
-  public static String getRandomFilename(String extension) {
-    return "img" + File.separator + "tmp" + Math.round(Math.random() * 100000) + "." + extension;
+  private void prefetch(List<Plotter> plotters, List<PlotComponent> components)
+      throws Valve3Exception {
+    List<Future<Void>> futures = new ArrayList<Future<Void>>(components.size());
+    for (int i = 0; i < components.size(); i++) {
+      final Plotter plotter = plotters.get(i);
+      final PlotComponent component = components.get(i);
+      if (plotter == null) {
+        continue;
+      }
+      futures.add(executor.submit(new Callable<Void>() {
+        public Void call() throws Valve3Exception {
+          plotter.prefetch(component);
+          return null;
+        }
+      }));
+    }
+    try {
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw new Valve3Exception(cause.getMessage() != null ? cause.getMessage()
+                                                           : cause.toString());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new Valve3Exception("Interrupted while fetching plot data");
+    } finally {
+      // no-op for finished fetches, stops the others if one failed
+      for (Future<Void> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Stop threads used for concurrent data fetching.
+   */
+  public void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
   }
 }
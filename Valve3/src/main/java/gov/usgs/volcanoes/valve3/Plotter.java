@@ -3,19 +3,18 @@ package gov.usgs.volcanoes.valve3;
 import gov.usgs.volcanoes.core.configfile.ConfigFile;
 import gov.usgs.volcanoes.core.legacy.plot.Plot;
 import gov.usgs.volcanoes.core.legacy.plot.PlotException;
-import gov.usgs.volcanoes.core.legacy.util.Pool;
 import gov.usgs.volcanoes.valve3.Valve3;
 import gov.usgs.volcanoes.valve3.Valve3Exception;
 import gov.usgs.volcanoes.valve3.result.Valve3Plot;
 import gov.usgs.volcanoes.vdx.ExportConfig;
-import gov.usgs.volcanoes.vdx.client.VDXClient;
 
 import java.awt.Color;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.io.Writer;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +34,8 @@ public abstract class Plotter {
 
   protected ConfigFile plotterConfig;
 
+  protected AtomicLong exportProgress;
+
   /**
    * Setter for vdx name.
    *
@@ -62,6 +63,15 @@ public abstract class Plotter {
     plotterConfig = cf;
   }
 
+  /**
+   * Setter for counter of export rows, incremented as rows are written.
+   *
+   * @param rows counter, or null
+   */
+  public void setExportProgress(AtomicLong rows) {
+    exportProgress = rows;
+  }
+
   /**
    * Exports PlotComponent to export format.
    *
@@ -75,6 +85,25 @@ public abstract class Plotter {
     throw new Valve3Exception("Data export not available for this data source.");
   }
 
+  /**
+   * Writes PlotComponent in export format. By default the result of
+   * {@link #toExport(PlotComponent, Map, OutputStream)} is written.
+   *
+   * @param comp    PlotComponent
+   * @param cmt     comment
+   * @param seedOut stream for miniseed data
+   * @param out     writer for text export
+   * @throws Valve3Exception when export is not available or can't be written
+   */
+  public void writeExport(PlotComponent comp, Map<String, String> cmt, OutputStream seedOut,
+      Writer out) throws Valve3Exception {
+    try {
+      out.write(toExport(comp, cmt, seedOut));
+    } catch (IOException e) {
+      throw new Valve3Exception("Error writing export: " + e.getMessage());
+    }
+  }
+
 
   /**
    * Returns flag if plotter output several components separately or as one plot.
@@ -118,6 +147,26 @@ public abstract class Plotter {
   public abstract void plot(Valve3Plot v3p, PlotComponent comp)
       throws Valve3Exception, PlotException;
 
+  /**
+   * Request the data needed to render PlotComponent ahead of {@link #plot}, so that the data
+   * of several components can be fetched concurrently. Does nothing by default; plotters which
+   * don't support prefetching fetch their data in plot().
+   *
+   * @param comp PlotComponent
+   * @throws Valve3Exception exception
+   */
+  public void prefetch(PlotComponent comp) throws Valve3Exception {
+  }
+
+  /**
+   * Load the metadata of the data source this plotter is configured for, so that it is cached
+   * before the first request. Does nothing by default.
+   *
+   * @throws Valve3Exception exception
+   */
+  public void loadMetadata() throws Valve3Exception {
+  }
+
   /**
    * Yield export configuration for specified source & client.
    *
@@ -126,40 +175,11 @@ public abstract class Plotter {
    * @return export config
    */
   public ExportConfig getExportConfig(String vdxSource, String vdxClient) {
-
-    // declare variables
-    List<String> stringList = null;
-    Pool<VDXClient> pool = null;
-    VDXClient client = null;
-
-    Map<String, String> params = new LinkedHashMap<String, String>();
-    params.put("source", vdxSource);
-    params.put("action", "exportinfo");
-
-    Valve3 v3 = Valve3.getInstance();
-    ExportConfig ec = v3.getExportConfig(vdxSource);
-    if (ec == null) {
-
-      // Build initial config from Valve parameters
-      ec = v3.getExportConfig("");
-      ec.parameterize(params);
-
-      // Fold in overrides from VDX for this source
-      pool = v3.getDataHandler().getVDXClient(vdxClient);
-      if (pool != null) {
-        client = pool.checkout();
-        try {
-          stringList = client.getTextData(params);
-        } catch (Exception e) {
-          stringList = new ArrayList<String>();
-        } finally {
-          pool.checkin(client);
-        }
-        ec = new ExportConfig(stringList);
-        v3.putExportConfig(vdxSource, ec);
-      }
+    try {
+      return Valve3.getInstance().getExportConfig(vdxSource, vdxClient);
+    } catch (Valve3Exception e) {
+      return new ExportConfig(new ArrayList<String>());
     }
-    return ec;
   }
 
   /**
@@ -187,14 +207,29 @@ public abstract class Plotter {
     switch (v3p.getOutputType()) {
       case XML:
       case PNG:
-        plot.writePNG(v3p.getLocalFilename());
+      case HTML:
+        if (v3p.isInMemory()) {
+          v3p.encodeImage();
+        } else {
+          plot.writePNG(ResultStore.getPartFilename(v3p.getLocalFilename()));
+          commitFile(v3p);
+        }
         break;
       case PS:
-        plot.writePS(v3p.getLocalFilename());
+        plot.writePS(ResultStore.getPartFilename(v3p.getLocalFilename()));
+        commitFile(v3p);
         break;
       default:
         throw new Valve3Exception("Unknown output type " + v3p.getOutputType());
     }
 
   }
+
+  private void commitFile(Valve3Plot v3p) throws Valve3Exception {
+    try {
+      Valve3.getInstance().getResultStore().commit(v3p.getLocalFilename());
+    } catch (IOException e) {
+      throw new Valve3Exception("Unable to write plot: " + e.getMessage());
+    }
+  }
 }
@@ -6,13 +6,18 @@ import gov.usgs.volcanoes.valve3.data.DataSourceDescriptor;
 import gov.usgs.volcanoes.valve3.plotter.ChannelMapPlotter;
 import gov.usgs.volcanoes.valve3.plotter.RawDataPlotter;
 import gov.usgs.volcanoes.valve3.result.ErrorMessage;
+import gov.usgs.volcanoes.valve3.result.ExportJob;
 import gov.usgs.volcanoes.valve3.result.RawData;
+import gov.usgs.volcanoes.valve3.result.Result;
 import gov.usgs.volcanoes.vdx.data.Rank;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -20,6 +25,8 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipOutputStream;
@@ -47,6 +54,7 @@ public class RawDataHandler implements HttpHandler {
   public static final int MAX_PLOT_HEIGHT = 50000;
 
   private DataHandler dataHandler;
+  private ExportJobHandler jobHandler;
 
   /**
    * Constructor.
@@ -55,6 +63,23 @@ public class RawDataHandler implements HttpHandler {
    */
   public RawDataHandler(DataHandler dh) {
     dataHandler = dh;
+    jobHandler = new ExportJobHandler(this, dh.getConfig());
+  }
+
+  /**
+   * Getter for handler of asynchronous export jobs.
+   *
+   * @return export job handler
+   */
+  public ExportJobHandler getJobHandler() {
+    return jobHandler;
+  }
+
+  /**
+   * Stop running export jobs.
+   */
+  public void shutdown() {
+    jobHandler.shutdown();
   }
 
   /**
@@ -72,7 +97,7 @@ public class RawDataHandler implements HttpHandler {
     String outputAllArg = StringUtils.stringToString(request.getParameter("outputAll"), "f");
     String outputType = StringUtils.stringToString(request.getParameter("o"), "csv");
     if (!(outputType.equals("csv") || outputType.equals("csvnots") || outputType.equals("seed")
-        || outputType.equals("xml") || outputType.equals("json"))) {
+        || outputType.equals("xml") || outputType.equals("json") || outputType.equals("bin"))) {
       outputType = "csv";
     }
 
@@ -170,17 +195,46 @@ public class RawDataHandler implements HttpHandler {
   }
 
   /**
-   * Handle the given http request and generate raw data type result.
+   * Handle the given http request and generate raw data type result. With "async=t" the export
+   * is submitted as a job and the {@link ExportJob} is returned instead.
    *
    * @see HttpHandler#handle
    */
   public Object handle(HttpServletRequest request) {
+    if (StringUtils.stringToBoolean(request.getParameter("async"), false)) {
+      return jobHandler.submit(request);
+    }
+    return export(request, null);
+  }
+
+  /**
+   * Export the data of a rawData request.
+   *
+   * @param request request to process
+   * @param rows    counter of written rows, may be null
+   * @return RawData, or ErrorMessage if export failed
+   */
+  public Result export(HttpServletRequest request, AtomicLong rows) {
     String ext = "";
+    OutputStream exportOut = null;
+    Writer textOut = null;
+    String textFilePath = null;
+    ZipOutputStream zipOut = null;
+    String zipFilePath = null;
     try {
       List<PlotComponent> components = parseRequest(request);
       if (components == null || components.size() <= 0) {
         return null;
       }
+      // a bin file holds a single VCOL table
+      if (components.size() > 1 && "bin".equals(components.get(0).get("o"))) {
+        throw new Valve3Exception("Binary export of more than one component not supported");
+      }
+
+      // text exports are stored compressed on request (.gz download), otherwise they are stored
+      // plain and compressed while sending to clients which accept gzip
+      boolean gzFile = StringUtils.stringToBoolean(request.getParameter("gz"), false);
+      boolean compressible = false;
 
       SimpleDateFormat df = new SimpleDateFormat("yyyyMMddHHmmss");
       df.setTimeZone(TimeZone.getTimeZone("GMT"));
@@ -201,6 +255,7 @@ public class RawDataHandler implements HttpHandler {
       String filePath = null;
       String outFileName = null;
       String outFilePath = null;
+      boolean gzipped = false;
 
       cmtBits.put("URL", request.getRequestURL().toString() + "?" + request.getQueryString());
 
@@ -225,6 +280,7 @@ public class RawDataHandler implements HttpHandler {
           dsd = dataHandler.getDataSourceDescriptor(component.get("src"));
         }
         if (plotter != null) {
+          plotter.setExportProgress(rows);
           if (cmtDataType == null) {
             cmtSampleRate = plotter.getSampleRate();
             cmtDataType = plotter.getDataType();
@@ -291,8 +347,10 @@ public class RawDataHandler implements HttpHandler {
         fn = df.format(now) + "_"
             + fnSource.replaceAll("-", "_") + "_"
             + (fnRank == null ? "_NoRank" : fnRank.replaceAll("-", "_"));
-        filePath = Valve3.getInstance().getApplicationPath() + File.separatorChar + "data"
-                   + File.separatorChar + fn;
+        if (filePath == null) {
+          filePath = Valve3.getInstance().getApplicationPath() + File.separatorChar
+                     + Valve3.getInstance().getResultStore().newFilename("data", "");
+        }
         if (!miniseed && outputType.equals("seed")) {
           miniseed = true;
         } else {
@@ -301,17 +359,16 @@ public class RawDataHandler implements HttpHandler {
         if (plotter != null) {
           if (miniseed) {
             try {
-              outFilePath = filePath + ".zip";
-              outFileName = fn + ".zip";
-              FileOutputStream zipdest = new FileOutputStream(outFilePath);
-              ZipOutputStream zipout = new ZipOutputStream(new BufferedOutputStream(zipdest));
-              ZipEntry zipentry = new ZipEntry(fn + ".msi");
-              zipout.putNextEntry(zipentry);
-              sb.append(plotter.toExport(component, cmtBits, zipout));
-              zipentry = new ZipEntry(fn + ".mst");
-              zipout.putNextEntry(zipentry);
-              zipout.write(sb.toString().getBytes());
-              zipout.close();
+              if (zipOut == null) {
+                outFilePath = filePath + ".zip";
+                outFileName = fn + ".zip";
+                zipFilePath = outFilePath;
+                zipOut = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(
+                    ResultStore.getPartFilename(zipFilePath)), 64 * 1024));
+                zipOut.putNextEntry(new ZipEntry(fn + ".msi"));
+              }
+              // records are encoded straight into the zip entry
+              sb.append(plotter.toExport(component, cmtBits, zipOut));
             } catch (ZipException ez) {
               LOGGER.info("RawDataHandler zipfile error");
               throw new Valve3Exception(ez.getMessage());
@@ -320,31 +377,120 @@ public class RawDataHandler implements HttpHandler {
               throw new Valve3Exception(eio.getMessage());
             }
           } else {
-            sb.append(plotter.toExport(component, cmtBits, null));
+            if (exportOut == null) {
+              textFilePath = filePath + "." + ext;
+              if (ext.equals("bin")) {
+                exportOut = openExport(textFilePath);
+              } else if (gzFile) {
+                textFilePath += ".gz";
+                gzipped = true;
+                try {
+                  exportOut = new GZIPOutputStream(openExport(textFilePath),
+                                                   Compression.BUFFER_SIZE);
+                } catch (IOException e) {
+                  LOGGER.info("RawDataHandler file error");
+                  throw new Valve3Exception(e.getMessage());
+                }
+              } else {
+                exportOut = openExport(textFilePath);
+                compressible = true;
+              }
+              if (!ext.equals("bin")) {
+                textOut = new OutputStreamWriter(exportOut);
+              }
+            }
+            if (ext.equals("bin")) {
+              plotter.toExport(component, cmtBits, exportOut);
+            } else {
+              plotter.writeExport(component, cmtBits, null, textOut);
+            }
           }
         }
       }
 
+      if (zipOut != null) {
+        try {
+          zipOut.putNextEntry(new ZipEntry(fn + ".mst"));
+          zipOut.write(sb.toString().getBytes());
+          zipOut.close();
+          zipOut = null;
+          Valve3.getInstance().getResultStore().commit(zipFilePath);
+        } catch (IOException e) {
+          LOGGER.info("RawDataHandler zipfile error");
+          throw new Valve3Exception(e.getMessage());
+        }
+      }
       if (outFilePath == null) {
+        outFilePath = textFilePath == null ? filePath + "." + ext : textFilePath;
+        outFileName = fn + "." + ext + (gzipped ? ".gz" : "");
+        if (exportOut == null) {
+          textFilePath = outFilePath;
+          exportOut = openExport(outFilePath);
+        }
         try {
-          outFilePath = filePath + "." + ext;
-          outFileName = fn + "." + ext;
-          FileOutputStream out = new FileOutputStream(outFilePath);
-          out.write(sb.toString().getBytes());
-          out.close();
+          if (textOut != null) {
+            textOut.close();
+          } else {
+            exportOut.close();
+          }
+          textOut = null;
+          exportOut = null;
+          Valve3.getInstance().getResultStore().commit(outFilePath);
         } catch (IOException e) {
           LOGGER.info("RawDataHandler file error");
           throw new Valve3Exception(e.getMessage());
         }
       }
-      String fileUrl = "data/" + outFileName;
-      RawData rd = new RawData(fileUrl, outFilePath);
+      String fileUrl = outFilePath.substring(Valve3.getInstance().getApplicationPath().length() + 1)
+                                  .replace(File.separatorChar, '/');
+      RawData rd = new RawData(fileUrl, outFilePath, outFileName);
+      rd.setCompressible(compressible);
+      Valve3.getInstance().getResultStore().publish(outFilePath, rd);
 
       Valve3.getInstance().getResultDeleter().addResult(rd);
       return rd;
     } catch (Valve3Exception e) {
       LOGGER.info("RawDataHandler error: {}", e.getMessage());
       return new ErrorMessage(e.getMessage());
+    } finally {
+      // incomplete export
+      if (exportOut != null) {
+        try {
+          if (textOut != null) {
+            textOut.close();
+          } else {
+            exportOut.close();
+          }
+        } catch (IOException e) {
+          // ignore
+        }
+        new File(ResultStore.getPartFilename(textFilePath)).delete();
+      }
+      if (zipOut != null) {
+        try {
+          zipOut.close();
+        } catch (IOException e) {
+          // ignore
+        }
+        new File(ResultStore.getPartFilename(zipFilePath)).delete();
+      }
+    }
+  }
+
+  /**
+   * Open buffered stream for export, written under the temporary name of the result.
+   *
+   * @param filename local file name of result
+   * @return stream
+   * @throws Valve3Exception if file can't be created
+   */
+  private static OutputStream openExport(String filename) throws Valve3Exception {
+    try {
+      return new BufferedOutputStream(
+          new FileOutputStream(ResultStore.getPartFilename(filename)), 64 * 1024);
+    } catch (IOException e) {
+      LOGGER.info("RawDataHandler file error");
+      throw new Valve3Exception(e.getMessage());
     }
   }
 }
@@ -3,24 +3,54 @@ package gov.usgs.volcanoes.valve3;
 import gov.usgs.volcanoes.valve3.result.Result;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * Keeps list of {@link Entry}s to manage result set.
+ * Deletes results after their time-to-live. Results wait in a delay queue, so expiring a result
+ * doesn't require scanning the others. The time-to-live may be set per result type; if the total
+ * size of live results exceeds the configured budget, the oldest results are deleted early. A
+ * result type may be given a budget of its own, so its results neither evict nor are evicted
+ * by others.
  *
  * @author Dan Cervelli
  */
 public class ResultDeleter extends Thread {
-  private static final int DELETE_DELAY = 60 * 1000;
-  private static final int DELETE_THRESHOLD = 10 * 60 * 1000;
-  private List<Entry> results;
-  private boolean kill = false;
+  private static final Logger LOGGER = LoggerFactory.getLogger(ResultDeleter.class);
+
+  public static final long DEFAULT_TTL = 10 * 60 * 1000;
+  public static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+
+  private final DelayQueue<Entry> queue;
+  private final Budget defaultBudget;
+  private final Map<Class<?>, Budget> budgets;
+  private final Map<Class<?>, Long> ttls;
+  private long defaultTtl = DEFAULT_TTL;
+  private volatile boolean kill = false;
+
+  private final AtomicLong expired = new AtomicLong();
+  private final AtomicLong evicted = new AtomicLong();
 
   /**
    * Default constructor.
    */
   public ResultDeleter() {
-    results = new ArrayList<Entry>(100);
+    super("ResultDeleter");
+    setDaemon(true);
+    queue = new DelayQueue<Entry>();
+    defaultBudget = new Budget(DEFAULT_MAX_BYTES);
+    budgets = new HashMap<Class<?>, Budget>();
+    ttls = new HashMap<Class<?>, Long>();
   }
 
   /**
@@ -32,65 +62,227 @@ public class ResultDeleter extends Thread {
   }
 
   /**
-   * Adds new entry to managed list.
+   * Setter for default time-to-live.
+   *
+   * @param ttl time-to-live of results without type specific setting, ms
+   */
+  public synchronized void setDefaultTtl(long ttl) {
+    defaultTtl = ttl;
+  }
+
+  /**
+   * Setter for time-to-live of one result type.
+   *
+   * @param type result class
+   * @param ttl  time-to-live, ms
+   */
+  public synchronized void setTtl(Class<? extends Result> type, long ttl) {
+    ttls.put(type, ttl);
+  }
+
+  /**
+   * Setter for total size of live results.
+   *
+   * @param max size in bytes above which oldest results are deleted
+   */
+  public synchronized void setMaxBytes(long max) {
+    defaultBudget.maxBytes = max;
+  }
+
+  /**
+   * Setter for total size of live results of one result type, kept apart from other results.
+   *
+   * @param type result class
+   * @param max  size in bytes above which oldest results of this type are deleted
+   */
+  public synchronized void setMaxBytes(Class<? extends Result> type, long max) {
+    budgets.put(type, new Budget(max));
+  }
+
+  /**
+   * Adds new result to be deleted after its time-to-live.
    *
-   * @param result {@link Result} contained in the entry
+   * @param result {@link Result} to manage
    */
-  public synchronized void addResult(Result result) {
-    results.add(new Entry(result));
+  public void addResult(Result result) {
+    long size = result.getSize();
+    List<Entry> evict = new ArrayList<Entry>();
+    synchronized (this) {
+      Long ttl = ttls.get(result.getClass());
+      Budget budget = budgets.get(result.getClass());
+      if (budget == null) {
+        budget = defaultBudget;
+      }
+      Entry entry = new Entry(result, size, ttl == null ? defaultTtl : ttl, budget);
+      budget.results.add(entry);
+      queue.add(entry);
+      budget.bytes += size;
+
+      Iterator<Entry> it = budget.results.iterator();
+      while (budget.bytes > budget.maxBytes && it.hasNext()) {
+        Entry e = it.next();
+        if (e == entry) {
+          break;
+        }
+        if (e.size == 0) {
+          // deleting it wouldn't free anything
+          continue;
+        }
+        it.remove();
+        queue.remove(e);
+        budget.bytes -= e.size;
+        evict.add(e);
+      }
+    }
+    for (Entry e : evict) {
+      evicted.incrementAndGet();
+      e.result.delete();
+    }
   }
 
   /**
-   * Delete entry from managed list.
+   * Take entry out of the set of live results.
    *
-   * @param i Serial number of entry to delete
+   * @param e entry
+   * @return true if entry was still live
    */
-  private synchronized void deleteResult(int i) {
-    results.remove(i);
+  private synchronized boolean remove(Entry e) {
+    if (e.budget.results.remove(e)) {
+      e.budget.bytes -= e.size;
+      return true;
+    }
+    return false;
   }
 
   /**
-   * Deletes entries from managed list.
+   * Deletes results.
    *
-   * @param force if true, deletes all entries. If false, deletes only old ones,
-   *              older then DELETE_THRESHOLD ms.
+   * @param force if true, deletes all results. If false, deletes only expired ones.
    */
   public void deleteResults(boolean force) {
-    long now = System.currentTimeMillis();
-    for (int i = 0; i < results.size(); i++) {
-      Entry e = results.get(i);
-      if (force || (now - e.time > DELETE_THRESHOLD)) {
+    if (force) {
+      List<Entry> all;
+      synchronized (this) {
+        all = new ArrayList<Entry>();
+        for (Budget budget : getBudgets()) {
+          all.addAll(budget.results);
+          budget.results.clear();
+          budget.bytes = 0;
+        }
+        queue.clear();
+      }
+      for (Entry e : all) {
         e.result.delete();
-        deleteResult(i);
-        i--;
+      }
+    } else {
+      Entry e;
+      while ((e = queue.poll()) != null) {
+        expire(e);
       }
     }
   }
 
+  private void expire(Entry e) {
+    // entries deleted by deleteResults(true) meanwhile are skipped here
+    if (remove(e)) {
+      expired.incrementAndGet();
+      e.result.delete();
+    }
+  }
+
+  /**
+   * Getter for number of live results.
+   *
+   * @return result count
+   */
+  public synchronized int getCount() {
+    int count = 0;
+    for (Budget budget : getBudgets()) {
+      count += budget.results.size();
+    }
+    return count;
+  }
+
+  /**
+   * Getter for total size of live results.
+   *
+   * @return size in bytes
+   */
+  public synchronized long getBytes() {
+    long bytes = 0;
+    for (Budget budget : getBudgets()) {
+      bytes += budget.bytes;
+    }
+    return bytes;
+  }
+
+  private List<Budget> getBudgets() {
+    List<Budget> all = new ArrayList<Budget>(budgets.values());
+    all.add(defaultBudget);
+    return all;
+  }
+
+  /**
+   * Yield short description of deleter state.
+   *
+   * @return statistics string
+   */
+  public synchronized String toString() {
+    return String.format("results=%d bytes=%d expired=%d evicted=%d", getCount(), getBytes(),
+                         expired.get(), evicted.get());
+  }
+
   /**
-   * Main execution thread. Call deleteResults() in non-force manner every DELETE_DELAY ms
+   * Main execution thread. Deletes each result as soon as it expires.
    */
   public void run() {
     while (!kill) {
       try {
-        Thread.sleep(DELETE_DELAY);
-        deleteResults(false);
+        expire(queue.take());
+      } catch (InterruptedException e) {
+        // killed
       } catch (Exception e) {
-        e.printStackTrace();
+        LOGGER.warn("Unable to delete result: {}", e.getMessage());
       }
     }
   }
 
   /**
-   * Supporting class, entry in managed list, keeps result and it's time.
+   * Supporting class, entry in managed list, keeps result and its expiration time.
    */
-  private class Entry {
-    public long time;
-    public Result result;
+  private static class Entry implements Delayed {
+    public final Result result;
+    public final long size;
+    public final long expires;
+    public final Budget budget;
 
-    public Entry(Result r) {
-      time = System.currentTimeMillis();
+    public Entry(Result r, long size, long ttl, Budget budget) {
       result = r;
+      this.size = size;
+      expires = System.currentTimeMillis() + ttl;
+      this.budget = budget;
+    }
+
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(expires - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public int compareTo(Delayed o) {
+      long d = expires - ((Entry) o).expires;
+      return d < 0 ? -1 : (d > 0 ? 1 : 0);
+    }
+  }
+
+  /**
+   * Live results sharing a size limit, oldest first.
+   */
+  private static class Budget {
+    final LinkedHashSet<Entry> results = new LinkedHashSet<Entry>();
+    long maxBytes;
+    long bytes;
+
+    Budget(long maxBytes) {
+      this.maxBytes = maxBytes;
     }
   }
 }
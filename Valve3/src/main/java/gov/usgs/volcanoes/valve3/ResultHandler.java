@@ -0,0 +1,37 @@
+package gov.usgs.volcanoes.valve3;
+
+import gov.usgs.volcanoes.valve3.result.ErrorMessage;
+import gov.usgs.volcanoes.valve3.result.Result;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Delivers published results again ("result" action, result id in the "id" parameter), so that
+ * interrupted downloads of exported data can be resumed without exporting again.
+ */
+public class ResultHandler implements HttpHandler {
+  private final ResultStore resultStore;
+
+  /**
+   * Constructor.
+   *
+   * @param store store holding the results
+   */
+  public ResultHandler(ResultStore store) {
+    resultStore = store;
+  }
+
+  /**
+   * Look up the requested result.
+   *
+   * @see HttpHandler#handle
+   */
+  public Object handle(HttpServletRequest request) {
+    String id = request.getParameter("id");
+    Result result = id == null ? null : resultStore.getPublished(id);
+    if (result == null) {
+      return new ErrorMessage("Result expired, please request it again.");
+    }
+    return result;
+  }
+}
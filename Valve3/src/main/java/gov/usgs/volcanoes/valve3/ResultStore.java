@@ -0,0 +1,222 @@
+package gov.usgs.volcanoes.valve3;
+
+import gov.usgs.volcanoes.valve3.result.Result;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Names, writes, streams and deletes the result files (plot images, exported data) of the web
+ * application.
+ *
+ * <p>Every result gets a random unique name in a subdirectory chosen by the first characters of
+ * the name, so concurrent requests never share a file and directories stay small. Files are
+ * written under a temporary name and renamed when complete, so a reader never sees a partial
+ * file. Files which are deleted while being streamed are removed when the last reader finishes.
+ * Published results can be downloaded again by their id until they are deleted.
+ *
+ * <p>Only files streamed through {@link #copy} are protected from deletion. Plot images of
+ * "file" plot delivery are referenced by url and served by the servlet container directly, so
+ * they can still be deleted while a slow client is loading them; "memory" plot delivery serves
+ * images through valve3.jsp instead.
+ */
+public class ResultStore {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ResultStore.class);
+  private static final String PART_SUFFIX = ".part";
+  private static final int SHARD_LENGTH = 2;
+
+  private final Map<String, Integer> readers;
+  private final Set<String> pendingDeletes;
+  private final Map<String, Result> published;
+
+  /**
+   * Default constructor.
+   */
+  public ResultStore() {
+    readers = new HashMap<String, Integer>();
+    pendingDeletes = new HashSet<String>();
+    published = new ConcurrentHashMap<String, Result>();
+  }
+
+  /**
+   * Yield a new unique file name. The subdirectory is created if needed.
+   *
+   * @param dir    result directory relative to application path, e.g. "img"
+   * @param suffix file name suffix, e.g. ".png"
+   * @return file name relative to application path
+   */
+  public String newFilename(String dir, String suffix) {
+    String id = UUID.randomUUID().toString().replace("-", "");
+    String shard = dir + File.separator + id.substring(0, SHARD_LENGTH);
+    File shardDir = new File(Valve3.getInstance().getApplicationPath(), shard);
+    if (!shardDir.isDirectory() && !shardDir.mkdirs() && !shardDir.isDirectory()) {
+      LOGGER.warn("Unable to create result directory {}", shardDir);
+    }
+    return shard + File.separator + id + suffix;
+  }
+
+  /**
+   * Yield temporary name to write a result file under before {@link #commit}.
+   *
+   * @param filename local file name of result
+   * @return temporary file name
+   */
+  public static String getPartFilename(String filename) {
+    return filename + PART_SUFFIX;
+  }
+
+  /**
+   * Move completely written temporary file to its final name.
+   *
+   * @param filename local file name of result
+   * @throws IOException if file can't be renamed
+   */
+  public void commit(String filename) throws IOException {
+    Path part = Paths.get(getPartFilename(filename));
+    Path target = Paths.get(filename);
+    try {
+      Files.move(part, target, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * Write result file.
+   *
+   * @param filename local file name of result
+   * @param data     file content
+   * @throws IOException if file can't be written
+   */
+  public void write(String filename, byte[] data) throws IOException {
+    Files.write(Paths.get(getPartFilename(filename)), data);
+    commit(filename);
+  }
+
+  /**
+   * Stream result file. The file isn't deleted before streaming finished.
+   *
+   * @param filename local file name of result
+   * @param out      stream to copy file to
+   * @throws IOException if file can't be read or written
+   */
+  public void copy(String filename, OutputStream out) throws IOException {
+    copy(filename, out, 0, Long.MAX_VALUE);
+  }
+
+  /**
+   * Stream part of result file. The file isn't deleted before streaming finished.
+   *
+   * @param filename local file name of result
+   * @param out      stream to copy file to
+   * @param offset   position of first byte to copy
+   * @param length   maximum number of bytes to copy
+   * @throws IOException if file can't be read or written
+   */
+  public void copy(String filename, OutputStream out, long offset, long length)
+      throws IOException {
+    synchronized (this) {
+      Integer count = readers.get(filename);
+      readers.put(filename, count == null ? 1 : count + 1);
+    }
+    try (InputStream in = Files.newInputStream(Paths.get(filename))) {
+      long skip = offset;
+      while (skip > 0) {
+        long n = in.skip(skip);
+        if (n <= 0) {
+          return;
+        }
+        skip -= n;
+      }
+      byte[] buf = new byte[128 * 1024];
+      long left = length;
+      int n;
+      while (left > 0 && (n = in.read(buf, 0, (int) Math.min(buf.length, left))) != -1) {
+        out.write(buf, 0, n);
+        left -= n;
+      }
+    } finally {
+      boolean delete = false;
+      synchronized (this) {
+        int count = readers.get(filename) - 1;
+        if (count == 0) {
+          readers.remove(filename);
+          delete = pendingDeletes.remove(filename);
+        } else {
+          readers.put(filename, count);
+        }
+      }
+      if (delete) {
+        new File(filename).delete();
+      }
+    }
+  }
+
+  /**
+   * Yield the id of a result file, its name without directories. Ids are unique, so they can
+   * be used to request a result again.
+   *
+   * @param filename local file name of result
+   * @return result id
+   */
+  public static String getId(String filename) {
+    return filename.substring(filename.lastIndexOf(File.separatorChar) + 1);
+  }
+
+  /**
+   * Make a result available for download by its id until it is deleted.
+   *
+   * @param filename local file name of result
+   * @param result   result to deliver
+   * @return result id
+   */
+  public String publish(String filename, Result result) {
+    String id = getId(filename);
+    published.put(id, result);
+    return id;
+  }
+
+  /**
+   * Yield published result.
+   *
+   * @param id result id
+   * @return result, or null if unknown or deleted
+   */
+  public Result getPublished(String id) {
+    return published.get(id);
+  }
+
+  /**
+   * Delete result file, or mark it for deletion if it is being streamed.
+   *
+   * @param filename local file name of result
+   * @return true if file was deleted or will be deleted after streaming
+   */
+  public boolean delete(String filename) {
+    published.remove(getId(filename));
+    synchronized (this) {
+      if (readers.containsKey(filename)) {
+        pendingDeletes.add(filename);
+        return true;
+      }
+    }
+    new File(getPartFilename(filename)).delete();
+    return new File(filename).delete();
+  }
+}
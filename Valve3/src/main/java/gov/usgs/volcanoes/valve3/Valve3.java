@@ -3,13 +3,32 @@ package gov.usgs.volcanoes.valve3;
 import gov.usgs.volcanoes.core.configfile.ConfigFile;
 import gov.usgs.volcanoes.core.legacy.plot.map.GeoImageSet;
 import gov.usgs.volcanoes.core.legacy.plot.map.GeoLabelSet;
+import gov.usgs.volcanoes.core.util.StringUtils;
+import gov.usgs.volcanoes.core.util.UtilException;
 import gov.usgs.volcanoes.valve3.data.DataHandler;
+import gov.usgs.volcanoes.valve3.data.DataSourceDescriptor;
+import gov.usgs.volcanoes.valve3.data.VDXClientLease;
+import gov.usgs.volcanoes.valve3.data.VDXClientPool;
+import gov.usgs.volcanoes.valve3.result.ExportJob;
+import gov.usgs.volcanoes.valve3.result.RawData;
+import gov.usgs.volcanoes.valve3.result.Valve3Plot;
 import gov.usgs.volcanoes.vdx.ExportConfig;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
@@ -33,6 +52,8 @@ public class Valve3 implements ServletContextListener {
   private static final String CONFIG_PATH = File.separator + "WEB-INF"
                                             + File.separator + "config" + File.separator;
   private static final String CONFIG_FILE = "valve3.config";
+  private static final int DEFAULT_EXPORT_CONFIG_REFRESH = 3600;
+  private static final int EXPORT_CONFIG_THREADS = 4;
   private static Valve3 instance;
 
   private ActionHandler actionHandler;
@@ -41,17 +62,21 @@ public class Valve3 implements ServletContextListener {
   private String applicationPath;
   private String administrator = "Administrator";
   private String administratorEmail = "admin@usgs.gov";
+  private String adminKey;
   private String installationTitle = "Valve Installation";
   private String timeZoneAbbr = "UTC";
   private String openDataUrl = "";
+  private boolean gzip = true;
 
   private GeoImageSet imageSet;
   private GeoLabelSet labelSet;
   private ConfigFile defaults;
 
   private ResultDeleter resultDeleter;
+  private ResultStore resultStore;
 
-  private HashMap<String, ExportConfig> exportConfigs;
+  private Map<String, ExportConfig> exportConfigs;
+  private ScheduledExecutorService exportConfigLoader;
 
   /**
    * Default constructor.
@@ -62,7 +87,8 @@ public class Valve3 implements ServletContextListener {
     org.apache.log4j.Logger.getLogger("gov.usgs.volcanoes.core.legacy.net").setLevel(Level.ERROR);
     resultDeleter = new ResultDeleter();
     resultDeleter.start();
-    exportConfigs = new HashMap<String, ExportConfig>();
+    resultStore = new ResultStore();
+    exportConfigs = new ConcurrentHashMap<String, ExportConfig>();
   }
 
   /**
@@ -75,6 +101,8 @@ public class Valve3 implements ServletContextListener {
     LOGGER.info("admin.name: {}", administrator);
     administratorEmail = config.getString("admin.email");
     LOGGER.info("admin.email: {}", administratorEmail);
+    adminKey = config.getString("admin.key");
+    LOGGER.info("admin actions: {}", adminKey == null ? "disabled" : "enabled");
     installationTitle = config.getString("title");
     LOGGER.info("title: {}", installationTitle);
     timeZoneAbbr = config.getString("timeZoneAbbr");
@@ -83,6 +111,31 @@ public class Valve3 implements ServletContextListener {
     }
     LOGGER.info("timeZoneAbbr: {}", timeZoneAbbr);
 
+    long ttl = StringUtils.stringToInt(config.getString("result.ttl"), 600) * 1000L;
+    resultDeleter.setDefaultTtl(ttl);
+    // result types without their own setting use result.ttl
+    String plotTtl = config.getString("result.plot.ttl");
+    if (plotTtl != null) {
+      resultDeleter.setTtl(Valve3Plot.class, StringUtils.stringToInt(plotTtl, 600) * 1000L);
+    }
+    String rawDataTtl = config.getString("result.rawData.ttl");
+    if (rawDataTtl != null) {
+      long rawTtl = StringUtils.stringToInt(rawDataTtl, 600) * 1000L;
+      resultDeleter.setTtl(RawData.class, rawTtl);
+      resultDeleter.setTtl(ExportJob.class, rawTtl);
+    }
+    long maxBytes = (long) StringUtils.stringToDouble(config.getString("result.maxBytes"),
+                                                      ResultDeleter.DEFAULT_MAX_BYTES);
+    resultDeleter.setMaxBytes(maxBytes);
+    // exports have their own budget, so large exports don't evict each other or plots early
+    long rawDataMaxBytes = (long) StringUtils.stringToDouble(
+        config.getString("result.rawData.maxBytes"), Long.MAX_VALUE);
+    resultDeleter.setMaxBytes(RawData.class, rawDataMaxBytes);
+    LOGGER.info("result.ttl: {}, result.maxBytes: {}, result.rawData.maxBytes: {}", ttl / 1000,
+                maxBytes, rawDataMaxBytes == Long.MAX_VALUE ? "none" : rawDataMaxBytes);
+    gzip = !"none".equalsIgnoreCase(config.getString("compression"));
+    LOGGER.info("compression: {}", gzip ? Compression.GZIP : "none");
+
     ExportConfig ec = new ExportConfig("", config);
     exportConfigs.put("", ec);
     openDataUrl = config.getString("openDataURL");
@@ -109,6 +162,15 @@ public class Valve3 implements ServletContextListener {
     return resultDeleter;
   }
 
+  /**
+   * Getter for result store.
+   *
+   * @return result store
+   */
+  public ResultStore getResultStore() {
+    return resultStore;
+  }
+
   /**
    * Implementation of Singleton pattern.
    *
@@ -163,10 +225,16 @@ public class Valve3 implements ServletContextListener {
       actionHandler = new ActionHandler("a");
       DataHandler dh = getDataHandler();
       actionHandler.getHandlers().put("data", dh);
-      actionHandler.getHandlers().put("rawData", new RawDataHandler(dh));
-      actionHandler.getHandlers().put("plot", new PlotHandler(dh));
+      RawDataHandler rdh = new RawDataHandler(dh);
+      actionHandler.getHandlers().put("rawData", rdh);
+      actionHandler.getHandlers().put("job", rdh.getJobHandler());
+      PlotHandler ph = new PlotHandler(dh);
+      actionHandler.getHandlers().put("plot", ph);
+      actionHandler.getHandlers().put("img", new ImageHandler(ph.getImageStore()));
+      actionHandler.getHandlers().put("result", new ResultHandler(getResultStore()));
       MenuHandler mh = getMenuHandler();
       actionHandler.getHandlers().put("menu", mh);
+      actionHandler.getHandlers().put("admin", new AdminHandler(dh, adminKey));
     }
 
     return actionHandler;
@@ -263,23 +331,129 @@ public class Valve3 implements ServletContextListener {
   }
 
   /**
-   * Getter for export config for data source.
+   * Getter for gzip compression of responses.
+   *
+   * @return true if responses may be gzip encoded
+   */
+  public boolean isGzipEnabled() {
+    return gzip;
+  }
+
+  /**
+   * Getter for default export config, built from valve3.config.
+   *
+   * @return export config
+   */
+  public ExportConfig getExportConfig() {
+    return exportConfigs.get("");
+  }
+
+  /**
+   * Yield export config for vdx source, requesting it from vdx if it wasn't loaded yet.
    *
-   * @param source data source name
+   * @param vdxSource vdx source name
+   * @param vdxClient vdx name
    * @return export config
+   * @throws Valve3Exception if vdx is unknown or no vdx client became available
    */
-  public ExportConfig getExportConfig(String source) {
-    return exportConfigs.get(source);
+  public ExportConfig getExportConfig(String vdxSource, String vdxClient)
+      throws Valve3Exception {
+    ExportConfig ec = exportConfigs.get(vdxClient + "." + vdxSource);
+    if (ec == null) {
+      ec = loadExportConfig(vdxSource, vdxClient);
+    }
+    return ec;
   }
 
   /**
-   * Setter for export config.
+   * Request export config for vdx source from vdx and store it. If vdx fails, the config loaded
+   * before is kept; an empty config is only stored if none was loaded yet.
    *
-   * @param source data source name
-   * @param ec     export config
+   * @param vdxSource vdx source name
+   * @param vdxClient vdx name
+   * @return export config
+   * @throws Valve3Exception if vdx is unknown or no vdx client became available
+   */
+  private ExportConfig loadExportConfig(String vdxSource, String vdxClient)
+      throws Valve3Exception {
+    VDXClientPool pool = getDataHandler().getVDXClient(vdxClient);
+    if (pool == null) {
+      throw new Valve3Exception("Unknown VDX server " + vdxClient
+                                + " check .vdx line in data.config");
+    }
+
+    // Build initial config from Valve parameters
+    Map<String, String> params = new LinkedHashMap<String, String>();
+    params.put("source", vdxSource);
+    params.put("action", "exportinfo");
+    getExportConfig().parameterize(params);
+
+    // Fold in overrides from VDX for this source
+    String key = vdxClient + "." + vdxSource;
+    List<String> stringList;
+    try (VDXClientLease lease = pool.lease()) {
+      stringList = lease.getTextData(params);
+    } catch (UtilException e) {
+      // keep what was loaded before, a failed refresh mustn't turn off export
+      LOGGER.warn("Could not get export config of {}: {}", vdxSource, e.getMessage());
+      ExportConfig previous = exportConfigs.get(key);
+      if (previous != null) {
+        return previous;
+      }
+      stringList = new ArrayList<String>();
+    }
+    ExportConfig ec = new ExportConfig(stringList);
+    exportConfigs.put(key, ec);
+    return ec;
+  }
+
+  /**
+   * Load export configs of all data sources concurrently and reload them periodically
+   * ("exportConfig.refresh" in data.config, seconds; 0 loads them once).
    */
-  public void putExportConfig(String source, ExportConfig ec) {
-    exportConfigs.put(source, ec);
+  private void startExportConfigLoader() {
+    exportConfigLoader = Executors.newScheduledThreadPool(EXPORT_CONFIG_THREADS,
+        new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "ExportConfigLoader-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+          }
+        });
+
+    Runnable loadAll = new Runnable() {
+      public void run() {
+        Set<String> loaded = new HashSet<String>();
+        for (DataSourceDescriptor dsd : getDataHandler().getDataSources()) {
+          final String vdxSource = dsd.getVDXSource();
+          final String vdxClient = dsd.getVDXClientName();
+          if (vdxSource == null || vdxClient == null || !loaded.add(vdxClient + "." + vdxSource)) {
+            continue;
+          }
+          exportConfigLoader.execute(new Runnable() {
+            public void run() {
+              try {
+                loadExportConfig(vdxSource, vdxClient);
+              } catch (Exception e) {
+                LOGGER.warn("Could not load export config of {}: {}", vdxSource, e.getMessage());
+              }
+            }
+          });
+        }
+      }
+    };
+
+    int refresh = StringUtils.stringToInt(
+        getDataHandler().getConfig().getString("exportConfig.refresh"),
+        DEFAULT_EXPORT_CONFIG_REFRESH);
+    LOGGER.info("exportConfig.refresh: {}", refresh);
+    if (refresh > 0) {
+      exportConfigLoader.scheduleWithFixedDelay(loadAll, 0, refresh, TimeUnit.SECONDS);
+    } else {
+      exportConfigLoader.execute(loadAll);
+    }
   }
 
   /**
@@ -291,6 +465,9 @@ public class Valve3 implements ServletContextListener {
     LOGGER.info("Valve {} initialization", Version.VERSION_STRING);
     applicationPath = sce.getServletContext().getRealPath("");
     processConfigFile();
+    DataHandler dh = getDataHandler();
+    dh.getMetadataCache().warm(dh.getDataSources());
+    startExportConfigLoader();
   }
 
   /**
@@ -299,7 +476,18 @@ public class Valve3 implements ServletContextListener {
    * @see ServletContextListener#contextDestroyed
    */
   public void contextDestroyed(ServletContextEvent sce) {
+    if (actionHandler != null) {
+      ((PlotHandler) actionHandler.getHandlers().get("plot")).shutdown();
+      ((RawDataHandler) actionHandler.getHandlers().get("rawData")).shutdown();
+    }
+    if (exportConfigLoader != null) {
+      exportConfigLoader.shutdownNow();
+    }
+    if (dataHandler != null) {
+      dataHandler.shutdown();
+    }
     resultDeleter.kill();
+    LOGGER.info("Results {}", resultDeleter);
     resultDeleter.deleteResults(true);
   }
 }
@@ -1,7 +1,6 @@
 package gov.usgs.volcanoes.valve3.data;
 
 import gov.usgs.volcanoes.core.configfile.ConfigFile;
-import gov.usgs.volcanoes.core.legacy.util.Pool;
 import gov.usgs.volcanoes.core.util.StringUtils;
 import gov.usgs.volcanoes.core.util.UtilException;
 import gov.usgs.volcanoes.valve3.HttpHandler;
@@ -10,13 +9,20 @@ import gov.usgs.volcanoes.valve3.Valve3Exception;
 import gov.usgs.volcanoes.valve3.result.ErrorMessage;
 import gov.usgs.volcanoes.valve3.result.GenericMenu;
 import gov.usgs.volcanoes.valve3.result.ewRsamMenu;
-import gov.usgs.volcanoes.vdx.client.VDXClient;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -31,17 +37,22 @@ import org.slf4j.LoggerFactory;
 public class DataHandler implements HttpHandler {
   private static final String CONFIG_FILE = "data.config";
   private static final int DEFAULT_VDX_CLIENT_TIMEOUT = 60000;
+  private static final int DEFAULT_POOL_STATS_INTERVAL = 3600;
   private static final Logger LOGGER = LoggerFactory.getLogger(DataHandler.class);
   protected Map<String, DataSourceDescriptor> dataSources;
-  protected Map<String, Pool<VDXClient>> vdxClients;
+  protected Map<String, VDXClientPool> vdxClients;
   protected ConfigFile config;
+  protected ExecutorService fetchExecutor;
+  protected ScheduledExecutorService statsLogger;
+  protected MetadataCache metadataCache;
+  protected WavePyramid wavePyramid;
 
   /**
    * Default constructor.
    */
   public DataHandler() {
     dataSources = new HashMap<String, DataSourceDescriptor>();
-    vdxClients = new HashMap<String, Pool<VDXClient>>();
+    vdxClients = new HashMap<String, VDXClientPool>();
     processConfigFile();
   }
 
@@ -56,17 +67,86 @@ public class DataHandler implements HttpHandler {
       LOGGER.info("VDX: {}", vdx);
       ConfigFile sub = config.getSubConfig(vdx);
       int num = StringUtils.stringToInt(sub.getString("clients"), 4);
-      Pool<VDXClient> pool = new Pool<VDXClient>();
-      for (int i = 0; i < num; i++) {
-        VDXClient client = new VDXClient(sub.getString("host"),
-                                         Integer.parseInt(sub.getString("port")));
-        int timeout = StringUtils.stringToInt(sub.getString("timeout"), DEFAULT_VDX_CLIENT_TIMEOUT);
-        client.setTimeout(timeout);
-        pool.checkin(client);
-      }
+      int min = StringUtils.stringToInt(sub.getString("minClients"), num);
+      int timeout = StringUtils.stringToInt(sub.getString("timeout"), DEFAULT_VDX_CLIENT_TIMEOUT);
+      int acquireTimeout = StringUtils.stringToInt(sub.getString("acquireTimeout"),
+                                                   VDXClientPool.DEFAULT_ACQUIRE_TIMEOUT);
+      int idleTimeout = StringUtils.stringToInt(sub.getString("idleTimeout"),
+                                                VDXClientPool.DEFAULT_IDLE_TIMEOUT);
+      int leaseTimeout = StringUtils.stringToInt(sub.getString("leaseTimeout"),
+                                                 VDXClientPool.DEFAULT_LEASE_TIMEOUT);
+      VDXClientPool pool = new VDXClientPool(vdx, sub.getString("host"),
+                                             Integer.parseInt(sub.getString("port")), timeout,
+                                             min, num, acquireTimeout, idleTimeout,
+                                             leaseTimeout);
       vdxClients.put(vdx, pool);
     }
 
+    int statsInterval = StringUtils.stringToInt(config.getString("poolStats.interval"),
+                                                DEFAULT_POOL_STATS_INTERVAL);
+    LOGGER.info("poolStats.interval: {}", statsInterval);
+    if (statsInterval > 0 && !vdxClients.isEmpty()) {
+      statsLogger = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "DataHandler-stats");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+      statsLogger.scheduleAtFixedRate(new Runnable() {
+        public void run() {
+          for (VDXClientPool pool : vdxClients.values()) {
+            LOGGER.info("VDX pool {}", pool);
+          }
+        }
+      }, statsInterval, statsInterval, TimeUnit.SECONDS);
+    }
+
+    int fetchThreads = StringUtils.stringToInt(config.getString("fetchThreads"), 0);
+    if (fetchThreads > 0) {
+      LOGGER.info("fetchThreads: {}", fetchThreads);
+      fetchExecutor = Executors.newFixedThreadPool(fetchThreads, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "DataHandler-" + count.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+
+    int metadataTtl = StringUtils.stringToInt(config.getString("metadataCache.ttl"),
+                                              MetadataCache.DEFAULT_TTL);
+    metadataCache = new MetadataCache(metadataTtl);
+
+    String pyramidDir = config.getString("wavePyramid.dir");
+    if (pyramidDir != null && !pyramidDir.trim().isEmpty()) {
+      String[] levels = StringUtils.stringToString(config.getString("wavePyramid.levels"),
+                                                   WavePyramid.DEFAULT_LEVELS).split(",");
+      int[] buckets = new int[levels.length];
+      int n = 0;
+      for (String level : levels) {
+        int bucket = StringUtils.stringToInt(level.trim(), 0);
+        if (bucket > 0) {
+          buckets[n++] = bucket;
+        } else {
+          LOGGER.warn("Ignoring wavePyramid.levels entry '{}', must be a positive number of "
+                      + "seconds", level.trim());
+        }
+      }
+      int maxMapped = StringUtils.stringToInt(config.getString("wavePyramid.maxMapped"),
+                                              WavePyramid.DEFAULT_MAX_MAPPED);
+      double maxAge = StringUtils.stringToDouble(config.getString("wavePyramid.maxAge"),
+                                                 WavePyramid.DEFAULT_MAX_AGE);
+      if (n > 0) {
+        wavePyramid = new WavePyramid(new File(pyramidDir.trim()), Arrays.copyOf(buckets, n),
+                                      maxMapped, maxAge);
+      } else {
+        LOGGER.warn("No valid wavePyramid.levels, wave pyramid disabled");
+      }
+    }
+
     List<String> sources = config.getList("source");
     for (String source : sources) {
       LOGGER.info("Data source: {}", source);
@@ -91,12 +171,78 @@ public class DataHandler implements HttpHandler {
    * Yield VDXClient pool.
    *
    * @param key vdx parameter string in config file
-   * @return Pool of initialized VDXClients configured in data.config file
+   * @return pool of VDXClients configured in data.config file
    */
-  public Pool<VDXClient> getVDXClient(String key) {
+  public VDXClientPool getVDXClient(String key) {
     return vdxClients.get(key);
   }
 
+  /**
+   * Yield all VDXClient pools.
+   *
+   * @return pools, one per vdx configured in data.config
+   */
+  public Collection<VDXClientPool> getVDXClients() {
+    return vdxClients.values();
+  }
+
+  /**
+   * Yield number of clients in VDXClient pool.
+   *
+   * @param key vdx parameter string in config file
+   * @return number of clients configured for vdx, 0 if unknown
+   */
+  public int getVDXClientCount(String key) {
+    VDXClientPool pool = vdxClients.get(key);
+    return pool == null ? 0 : pool.getMaxSize();
+  }
+
+  /**
+   * Yield executor for concurrent per-channel data requests.
+   *
+   * @return executor, null if channels should be requested serially
+   */
+  public ExecutorService getFetchExecutor() {
+    return fetchExecutor;
+  }
+
+  /**
+   * Getter for metadata cache.
+   *
+   * @return cache of vdx source metadata
+   */
+  public MetadataCache getMetadataCache() {
+    return metadataCache;
+  }
+
+  /**
+   * Getter for waveform min/max pyramid.
+   *
+   * @return pyramid, null if not configured
+   */
+  public WavePyramid getWavePyramid() {
+    return wavePyramid;
+  }
+
+  /**
+   * Stop threads used for concurrent data requests and log VDX pool statistics.
+   */
+  public void shutdown() {
+    for (VDXClientPool pool : vdxClients.values()) {
+      LOGGER.info("VDX pool {}", pool);
+    }
+    LOGGER.info("Metadata cache {}", metadataCache);
+    if (wavePyramid != null) {
+      LOGGER.info("Wave pyramid {}", wavePyramid);
+    }
+    if (fetchExecutor != null) {
+      fetchExecutor.shutdownNow();
+    }
+    if (statsLogger != null) {
+      statsLogger.shutdownNow();
+    }
+  }
+
   /**
    * Yield named data source descriptor.
    *
@@ -144,7 +290,7 @@ public class DataHandler implements HttpHandler {
       params.put("source", dsd.getVDXSource());
       params.put("action", action);
 
-      Pool<VDXClient> pool = Valve3.getInstance().getDataHandler()
+      VDXClientPool pool = Valve3.getInstance().getDataHandler()
                               .getVDXClient(dsd.getVDXClientName());
 
 
@@ -153,80 +299,78 @@ public class DataHandler implements HttpHandler {
                                   + " check .vdx line in data.config");
       }
 
-      VDXClient client = pool.checkout();
-
-      if (client != null) {
-        List<String> ls = null;
-        if (action.equals("metadata") || action.equals("suppdata")) {
-          // Add the parameters needed for meta or supp data
-          // Also validate for required and duplicated parameters
-          String arg;
-          LOGGER.info("Processing {}", action);
-          char[] metaKind = {'?', '!', '?', '?', 'x', 'x', 'x', 'x'};
-          char[] suppKind = {'?', '?', '?', '?', '!', '?', '?', '?'};
-          char[] kind;
-          int reqCnt = 1;
-          if (action.equals("metadata")) {
-            kind = metaKind;
-          } else {
-            kind = suppKind;
+      List<String> ls = null;
+      if (action.equals("metadata") || action.equals("suppdata")) {
+        // Add the parameters needed for meta or supp data
+        // Also validate for required and duplicated parameters
+        String arg;
+        LOGGER.info("Processing {}", action);
+        char[] metaKind = {'?', '!', '?', '?', 'x', 'x', 'x', 'x'};
+        char[] suppKind = {'?', '?', '?', '?', '!', '?', '?', '?'};
+        char[] kind;
+        int reqCnt = 1;
+        if (action.equals("metadata")) {
+          kind = metaKind;
+        } else {
+          kind = suppKind;
+        }
+        String[] args = {"byID", "ch", "col", "rk", "st", "et", "tz", "type"};
+        for (int i = 0; i < 8; i++) {
+          arg = request.getParameter(args[i]);
+          if (arg == null || arg.equals("")) {
+            continue;
           }
-          String[] args = {"byID", "ch", "col", "rk", "st", "et", "tz", "type"};
-          for (int i = 0; i < 8; i++) {
-            arg = request.getParameter(args[i]);
-            if (arg == null || arg.equals("")) {
-              continue;
-            }
-            LOGGER.info("{} = {}", args[i], arg);
-            switch (kind[i]) {
-              case 'x':
-                throw new Valve3Exception("Illegal parameter: " + args[i]);
-              case 'r':
-                throw new Valve3Exception("Duplicated paramneter: " + args[i]);
-              case '!':
-                reqCnt--;
-                // fallthru
-              case '?':
-                kind[i] = 'r';
-                params.put(args[i], arg);
-                break;
-              default:
-                break;
-            }
+          LOGGER.info("{} = {}", args[i], arg);
+          switch (kind[i]) {
+            case 'x':
+              throw new Valve3Exception("Illegal parameter: " + args[i]);
+            case 'r':
+              throw new Valve3Exception("Duplicated paramneter: " + args[i]);
+            case '!':
+              reqCnt--;
+              // fallthru
+            case '?':
+              kind[i] = 'r';
+              params.put(args[i], arg);
+              break;
+            default:
+              break;
           }
         }
-        try {
-          ls = client.getTextData(params);
-        } catch (UtilException e) {
-          throw new Valve3Exception(e.getMessage());
-        } finally {
-          pool.checkin(client);
+      }
+      try {
+        if (params.size() == 2 && MetadataCache.isCacheable(action)) {
+          ls = metadataCache.getTextData(pool, dsd.getVDXSource(), action);
+        } else {
+          try (VDXClientLease lease = pool.lease()) {
+            ls = lease.getTextData(params);
+          }
         }
-        if (ls != null) {
-          if (action.equals("genericMenu")) {
-            GenericMenu result = new GenericMenu(ls);
-            return result;
-          } else if (action.equals("ewRsamMenu")) {
-            ewRsamMenu result = new ewRsamMenu(ls);
-            return result;
-          } else {
-            List<String> lsx;
-            if (action.equals("suppdata")) {
-              lsx = new ArrayList<String>();
-              for (String s : ls) {
-                lsx.add(protectSpecialCharacters(s));
-              }
-            } else {
-              lsx = ls;
+      } catch (UtilException e) {
+        throw new Valve3Exception(e.getMessage());
+      }
+      if (ls != null) {
+        if (action.equals("genericMenu")) {
+          GenericMenu result = new GenericMenu(ls);
+          return result;
+        } else if (action.equals("ewRsamMenu")) {
+          ewRsamMenu result = new ewRsamMenu(ls);
+          return result;
+        } else {
+          List<String> lsx;
+          if (action.equals("suppdata")) {
+            lsx = new ArrayList<String>();
+            for (String s : ls) {
+              lsx.add(protectSpecialCharacters(s));
             }
-            gov.usgs.volcanoes.valve3.result.List result
-                = new gov.usgs.volcanoes.valve3.result.List(lsx);
-            return result;
+          } else {
+            lsx = ls;
           }
+          gov.usgs.volcanoes.valve3.result.List result
+              = new gov.usgs.volcanoes.valve3.result.List(lsx);
+          return result;
         }
       }
-      // this should not be necessary, as the pool was already checked back in if it wasn't null.
-      // pool.checkin(client);
       return null;
     } catch (Valve3Exception e) {
       return new ErrorMessage(e.getMessage());
@@ -0,0 +1,188 @@
+package gov.usgs.volcanoes.valve3.data;
+
+import gov.usgs.volcanoes.core.util.UtilException;
+import gov.usgs.volcanoes.valve3.Plotter;
+import gov.usgs.volcanoes.valve3.Valve3Exception;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the metadata lists of vdx sources (channels, columns, ranks and azimuths), keyed by vdx
+ * server, vdx source and action. This metadata rarely changes, so a plot or menu request only
+ * needs to query vdx for the actual data.
+ *
+ * <p>The raw response lines are cached rather than parsed Channel or Rank objects, because
+ * callers modify the parsed objects. Parsing them again costs a split of a few hundred short
+ * lines at most, microseconds next to the vdx round trip it replaces; handing out copies of
+ * parsed objects would cost about as much. Entries expire after "metadataCache.ttl" seconds
+ * (data.config) and can be dropped explicitly with {@link #invalidate}, e.g. through the
+ * "invalidate" command of the {@link gov.usgs.volcanoes.valve3.AdminHandler}.
+ */
+public class MetadataCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(MetadataCache.class);
+
+  public static final int DEFAULT_TTL = 3600;
+
+  private static final String[] ACTIONS = {"channels", "columns", "ranks", "azimuths"};
+
+  private final long ttl;
+  private final Map<String, Entry> entries;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param ttl time-to-live in seconds, 0 disables caching
+   */
+  public MetadataCache(int ttl) {
+    this.ttl = ttl * 1000L;
+    entries = new ConcurrentHashMap<String, Entry>();
+    LOGGER.info("metadataCache.ttl: {}", ttl);
+  }
+
+  /**
+   * Check if vdx action returns metadata which may be cached.
+   *
+   * @param action vdx action
+   * @return true if responses to action are cached
+   */
+  public static boolean isCacheable(String action) {
+    for (String a : ACTIONS) {
+      if (a.equals(action)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Yield metadata of a vdx source, querying vdx only if not cached.
+   *
+   * @param pool      pool of vdx server
+   * @param vdxSource vdx source name
+   * @param action    one of channels, columns, ranks or azimuths
+   * @return unmodifiable list of response lines, may be null
+   * @throws Valve3Exception if no vdx client became available
+   * @throws UtilException   if vdx reports an error
+   */
+  public List<String> getTextData(VDXClientPool pool, String vdxSource, String action)
+      throws Valve3Exception, UtilException {
+    String key = getKey(pool.getName(), vdxSource, action);
+    Entry entry = entries.get(key);
+    if (entry != null && entry.expires >= System.currentTimeMillis()) {
+      hits.incrementAndGet();
+      return entry.lines;
+    }
+    misses.incrementAndGet();
+
+    Map<String, String> params = new LinkedHashMap<String, String>();
+    params.put("source", vdxSource);
+    params.put("action", action);
+    List<String> lines;
+    try (VDXClientLease lease = pool.lease()) {
+      lines = lease.getTextData(params);
+    }
+    if (lines == null) {
+      return null;
+    }
+    lines = Collections.unmodifiableList(new ArrayList<String>(lines));
+    if (ttl > 0) {
+      entries.put(key, new Entry(lines, System.currentTimeMillis() + ttl));
+    }
+    return lines;
+  }
+
+  /**
+   * Drop cached metadata of a vdx source, e.g. after channels were added.
+   *
+   * @param vdxClient vdx server name
+   * @param vdxSource vdx source name
+   */
+  public void invalidate(String vdxClient, String vdxSource) {
+    String prefix = getKey(vdxClient, vdxSource, "");
+    Iterator<String> it = entries.keySet().iterator();
+    while (it.hasNext()) {
+      if (it.next().startsWith(prefix)) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Drop all cached metadata.
+   */
+  public void invalidateAll() {
+    entries.clear();
+  }
+
+  /**
+   * Load metadata of the given data sources in a background thread, so that the first requests
+   * after startup are served from cache.
+   *
+   * @param sources data sources to load
+   */
+  public void warm(final List<DataSourceDescriptor> sources) {
+    if (ttl <= 0) {
+      return;
+    }
+    Thread t = new Thread(new Runnable() {
+      public void run() {
+        long start = System.currentTimeMillis();
+        for (DataSourceDescriptor dsd : sources) {
+          Plotter plotter = dsd.getPlotter();
+          if (plotter == null) {
+            continue;
+          }
+          try {
+            plotter.loadMetadata();
+          } catch (Exception e) {
+            LOGGER.warn("Could not load metadata of {}: {}", dsd.getName(), e.getMessage());
+          }
+        }
+        LOGGER.info("Metadata of {} sources loaded in {} ms", sources.size(),
+                    System.currentTimeMillis() - start);
+      }
+    }, "MetadataCache-warm");
+    t.setDaemon(true);
+    t.start();
+  }
+
+  private static String getKey(String vdxClient, String vdxSource, String action) {
+    return vdxClient + '\n' + vdxSource + '\n' + action;
+  }
+
+  /**
+   * Yield short description of cache state.
+   *
+   * @return statistics string
+   */
+  public String toString() {
+    return String.format("entries=%d hits=%d misses=%d", entries.size(), hits.get(),
+                         misses.get());
+  }
+
+  /**
+   * Cached vdx response.
+   */
+  private static class Entry {
+    private final List<String> lines;
+    private final long expires;
+
+    Entry(List<String> lines, long expires) {
+      this.lines = lines;
+      this.expires = expires;
+    }
+  }
+}
@@ -0,0 +1,183 @@
+package gov.usgs.volcanoes.valve3.data;
+
+import gov.usgs.volcanoes.core.util.UtilException;
+import gov.usgs.volcanoes.vdx.client.VDXClient;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * VDXClient checked out of a {@link VDXClientPool}. Intended for use in try-with-resources, so
+ * the client is returned to the pool however the block is left:
+ *
+ * <pre>
+ * try (VDXClientLease lease = pool.lease()) {
+ *   data = lease.getBinaryData(params);
+ * }
+ * </pre>
+ *
+ * <p>Leases not used for a request for longer than the pool's lease timeout are reclaimed by
+ * the pool; their client is closed and requests through a closed or reclaimed lease fail. Leases
+ * in the middle of a request are never reclaimed.
+ */
+public class VDXClientLease implements AutoCloseable {
+  private final VDXClientPool pool;
+  private final VDXClient client;
+  private final Thread owner;
+  private final long start;
+  private final AtomicBoolean closed = new AtomicBoolean();
+
+  /* guarded by this */
+  private int requests;
+  private long lastUsed;
+  private boolean reported;
+
+  /**
+   * Constructor.
+   *
+   * @param pool   pool client was checked out of
+   * @param client checked out client
+   */
+  VDXClientLease(VDXClientPool pool, VDXClient client) {
+    this.pool = pool;
+    this.client = client;
+    owner = Thread.currentThread();
+    start = System.currentTimeMillis();
+    lastUsed = start;
+  }
+
+  /**
+   * Send text request to vdx.
+   *
+   * @param params request parameters
+   * @return response lines
+   * @throws UtilException if vdx reports an error or the lease was closed
+   */
+  public List<String> getTextData(Map<String, String> params) throws UtilException {
+    begin();
+    try {
+      return pool.getTextData(client, params);
+    } finally {
+      end();
+    }
+  }
+
+  /**
+   * Send binary request to vdx.
+   *
+   * @param params request parameters
+   * @return response object
+   * @throws UtilException if vdx reports an error or the lease was closed
+   */
+  public Object getBinaryData(Map<String, String> params) throws UtilException {
+    begin();
+    try {
+      return pool.getBinaryData(client, params);
+    } finally {
+      end();
+    }
+  }
+
+  private synchronized void begin() throws UtilException {
+    if (closed.get()) {
+      throw new UtilException("Client of VDX server " + pool.getName() + " was already returned");
+    }
+    requests++;
+  }
+
+  private synchronized void end() {
+    requests--;
+    lastUsed = System.currentTimeMillis();
+  }
+
+  /**
+   * Mark client as broken, so it is closed instead of reused when the lease is closed.
+   */
+  public void invalidate() {
+    pool.invalidate(client);
+  }
+
+  /**
+   * Yield time since client was checked out.
+   *
+   * @return lease age, ms
+   */
+  public long getAge() {
+    return System.currentTimeMillis() - start;
+  }
+
+  /**
+   * Yield time since the lease was last used for a request, or since it was taken.
+   *
+   * @return idle time, ms; 0 while a request is in progress
+   */
+  public synchronized long getIdleTime() {
+    return requests > 0 ? 0 : System.currentTimeMillis() - lastUsed;
+  }
+
+  /**
+   * Check if a request is in progress.
+   *
+   * @return true if lease is in a request
+   */
+  public synchronized boolean isBusy() {
+    return requests > 0;
+  }
+
+  /**
+   * Getter for thread which took the lease.
+   *
+   * @return owner thread
+   */
+  public Thread getOwner() {
+    return owner;
+  }
+
+  /**
+   * Check if lease was already closed or reclaimed.
+   *
+   * @return true if client was returned to pool
+   */
+  public boolean isClosed() {
+    return closed.get();
+  }
+
+  /**
+   * Return client to pool. Closing a lease twice, or closing a reclaimed lease, has no effect.
+   */
+  public void close() {
+    if (closed.compareAndSet(false, true)) {
+      pool.release(this, false);
+    }
+  }
+
+  /**
+   * Reclaim lease on behalf of the pool: client is dropped rather than reused because its
+   * owner may still hold it. Leases in a request are left alone.
+   *
+   * @return true if lease was open and idle, and is now closed
+   */
+  synchronized boolean reclaim() {
+    if (requests == 0 && closed.compareAndSet(false, true)) {
+      pool.release(this, true);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Mark lease as reported by the pool.
+   *
+   * @return true the first time
+   */
+  synchronized boolean report() {
+    boolean first = !reported;
+    reported = true;
+    return first;
+  }
+
+  VDXClient getClient() {
+    return client;
+  }
+}
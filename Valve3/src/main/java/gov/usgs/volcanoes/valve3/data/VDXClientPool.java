@@ -0,0 +1,443 @@
+package gov.usgs.volcanoes.valve3.data;
+
+import gov.usgs.volcanoes.core.util.UtilException;
+import gov.usgs.volcanoes.valve3.Valve3Exception;
+import gov.usgs.volcanoes.vdx.client.VDXClient;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of connections to one vdx server. Replaces the blocking legacy Pool: clients are handed
+ * out as {@link VDXClientLease}s, acquiring a lease waits at most the configured acquire timeout,
+ * clients are created on demand up to the maximum size and idle clients above the minimum size
+ * are closed. Clients whose request failed are dropped when the lease is closed instead of being
+ * reused, as their connection may be broken or hold the rest of a response, and leases left
+ * unused for longer than the lease timeout are reclaimed.
+ *
+ * <p>Requests sent through leases are timed per vdx action; together with the checkout wait
+ * histogram these are available from {@link #toString()}, which the {@link DataHandler} logs
+ * periodically and the "status" admin command reports.
+ */
+public class VDXClientPool {
+  private static final Logger LOGGER = LoggerFactory.getLogger(VDXClientPool.class);
+
+  public static final int DEFAULT_ACQUIRE_TIMEOUT = 30000;
+  public static final int DEFAULT_IDLE_TIMEOUT = 300000;
+  public static final int DEFAULT_LEASE_TIMEOUT = 600000;
+
+  // upper bounds, in ms, of checkout wait histogram buckets; last bucket is unbounded
+  private static final long[] WAIT_BUCKETS = {1, 10, 100, 1000, 10000};
+
+  private final String name;
+  private final String host;
+  private final int port;
+  private final int timeout;
+  private final int minSize;
+  private final int maxSize;
+  private final long acquireTimeout;
+  private final long idleTimeout;
+  private final long leaseTimeout;
+
+  private final Semaphore permits;
+  private final LinkedBlockingDeque<IdleClient> idle;
+  private final Set<VDXClient> broken;
+  private final Set<VDXClientLease> leases;
+
+  private final AtomicInteger size = new AtomicInteger();
+  private final AtomicInteger inUse = new AtomicInteger();
+  private final AtomicInteger waiters = new AtomicInteger();
+  private final AtomicLongArray waitHistogram = new AtomicLongArray(WAIT_BUCKETS.length + 1);
+  private final AtomicLong acquireTimeouts = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong reclaimed = new AtomicLong();
+  private final ConcurrentHashMap<String, ActionStats> actions;
+
+  /**
+   * Constructor.
+   *
+   * @param name           vdx name as in data.config
+   * @param host           vdx host
+   * @param port           vdx port
+   * @param timeout        socket timeout of clients, ms
+   * @param minSize        number of clients kept open even when idle
+   * @param maxSize        maximum number of clients
+   * @param acquireTimeout maximum time to wait for a free client, ms
+   * @param idleTimeout    time after which clients above minSize are closed, ms
+   * @param leaseTimeout   time without requests after which leases are reclaimed, ms
+   */
+  public VDXClientPool(String name, String host, int port, int timeout, int minSize,
+      int maxSize, long acquireTimeout, long idleTimeout, long leaseTimeout) {
+    this.name = name;
+    this.host = host;
+    this.port = port;
+    this.timeout = timeout;
+    this.maxSize = Math.max(maxSize, 1);
+    this.minSize = Math.max(Math.min(minSize, this.maxSize), 0);
+    this.acquireTimeout = acquireTimeout;
+    this.idleTimeout = idleTimeout;
+    this.leaseTimeout = leaseTimeout;
+
+    permits = new Semaphore(this.maxSize, true);
+    idle = new LinkedBlockingDeque<IdleClient>();
+    broken = Collections.newSetFromMap(new ConcurrentHashMap<VDXClient, Boolean>());
+    leases = Collections.newSetFromMap(new ConcurrentHashMap<VDXClientLease, Boolean>());
+    actions = new ConcurrentHashMap<String, ActionStats>();
+
+    for (int i = 0; i < this.minSize; i++) {
+      idle.offerLast(new IdleClient(createClient()));
+      size.incrementAndGet();
+    }
+  }
+
+  private VDXClient createClient() {
+    VDXClient client = new VDXClient(host, port);
+    client.setTimeout(timeout);
+    return client;
+  }
+
+  /**
+   * Lease a client, waiting at most the acquire timeout for one to become free. The lease must
+   * be closed, preferably by try-with-resources, to return the client.
+   *
+   * @return lease
+   * @throws Valve3Exception if no client became available in time
+   */
+  public VDXClientLease lease() throws Valve3Exception {
+    reclaimExpired();
+    VDXClientLease lease = new VDXClientLease(this, checkout());
+    leases.add(lease);
+    return lease;
+  }
+
+  /**
+   * Return leased client.
+   *
+   * @param lease     lease to end
+   * @param reclaimed true if lease is ended by the pool, not its owner
+   */
+  void release(VDXClientLease lease, boolean reclaimed) {
+    leases.remove(lease);
+    if (reclaimed) {
+      invalidate(lease.getClient());
+    }
+    checkin(lease.getClient());
+  }
+
+  /**
+   * Reclaim leases not used for a request for longer than the lease timeout. These are leaked;
+   * their clients are closed so that the pool doesn't shrink permanently. Leases in a request
+   * that has taken longer than the lease timeout are only logged, once, as their client is in
+   * use.
+   */
+  private void reclaimExpired() {
+    for (VDXClientLease lease : leases) {
+      long age = lease.getAge();
+      if (lease.getIdleTime() > leaseTimeout && lease.reclaim()) {
+        reclaimed.incrementAndGet();
+        LOGGER.warn("Reclaimed client of VDX server {} held for {} ms by thread {}", name, age,
+                    lease.getOwner().getName());
+      } else if (age > leaseTimeout && lease.isBusy() && lease.report()) {
+        LOGGER.warn("Client of VDX server {} held for {} ms by thread {} is still in a request",
+                    name, age, lease.getOwner().getName());
+      }
+    }
+  }
+
+  /**
+   * Check out a client, waiting at most the acquire timeout for one to become free.
+   *
+   * @return client
+   * @throws Valve3Exception if no client became available in time
+   */
+  private VDXClient checkout() throws Valve3Exception {
+    long start = System.nanoTime();
+    boolean acquired = false;
+    waiters.incrementAndGet();
+    try {
+      acquired = permits.tryAcquire(acquireTimeout, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      waiters.decrementAndGet();
+    }
+    recordWait((System.nanoTime() - start) / 1000000);
+
+    if (!acquired) {
+      acquireTimeouts.incrementAndGet();
+      LOGGER.warn("No client for VDX server {} within {} ms: {}", name, acquireTimeout, this);
+      throw new Valve3Exception("VDX server " + name + " is busy, try again later");
+    }
+
+    evictIdle();
+    IdleClient ic = idle.pollFirst();
+    VDXClient client;
+    if (ic == null) {
+      client = createClient();
+      size.incrementAndGet();
+    } else {
+      client = ic.client;
+    }
+    inUse.incrementAndGet();
+    return client;
+  }
+
+  /**
+   * Return client to pool. Clients marked as broken are closed and dropped.
+   *
+   * @param client client obtained by {@link #checkout()}
+   */
+  private void checkin(VDXClient client) {
+    inUse.decrementAndGet();
+    if (broken.remove(client)) {
+      discard(client);
+    } else {
+      idle.offerFirst(new IdleClient(client));
+    }
+    permits.release();
+  }
+
+  /**
+   * Mark checked out client as broken, so it is dropped instead of reused when checked in.
+   *
+   * @param client checked out client
+   */
+  void invalidate(VDXClient client) {
+    broken.add(client);
+  }
+
+  /**
+   * Close idle clients which weren't used for the idle timeout, keeping at least minSize.
+   */
+  private void evictIdle() {
+    long now = System.currentTimeMillis();
+    while (size.get() > minSize) {
+      IdleClient oldest = idle.pollLast();
+      if (oldest == null) {
+        break;
+      }
+      if (now - oldest.since < idleTimeout) {
+        idle.offerLast(oldest);
+        break;
+      }
+      discard(oldest.client);
+    }
+  }
+
+  private void discard(VDXClient client) {
+    size.decrementAndGet();
+    evictions.incrementAndGet();
+    try {
+      client.close();
+    } catch (Exception e) {
+      LOGGER.debug("Error closing client for VDX server {}: {}", name, e.getMessage());
+    }
+  }
+
+  private void recordWait(long ms) {
+    int i = 0;
+    while (i < WAIT_BUCKETS.length && ms > WAIT_BUCKETS[i]) {
+      i++;
+    }
+    waitHistogram.incrementAndGet(i);
+  }
+
+  /**
+   * Send text request through a checked out client.
+   *
+   * @param client checked out client
+   * @param params request parameters
+   * @return response lines
+   * @throws UtilException if vdx reports an error
+   */
+  List<String> getTextData(VDXClient client, Map<String, String> params)
+      throws UtilException {
+    long start = System.nanoTime();
+    boolean ok = false;
+    try {
+      List<String> result = client.getTextData(params);
+      ok = true;
+      return result;
+    } catch (UtilException | RuntimeException e) {
+      // connection state is unknown after a failed request
+      invalidate(client);
+      throw e;
+    } finally {
+      getActionStats(params.get("action")).record(System.nanoTime() - start, ok);
+    }
+  }
+
+  /**
+   * Send binary request through a checked out client.
+   *
+   * @param client checked out client
+   * @param params request parameters
+   * @return response object
+   * @throws UtilException if vdx reports an error
+   */
+  Object getBinaryData(VDXClient client, Map<String, String> params)
+      throws UtilException {
+    long start = System.nanoTime();
+    boolean ok = false;
+    try {
+      Object result = client.getBinaryData(params);
+      ok = true;
+      return result;
+    } catch (UtilException | RuntimeException e) {
+      // connection state is unknown after a failed request
+      invalidate(client);
+      throw e;
+    } finally {
+      getActionStats(params.get("action")).record(System.nanoTime() - start, ok);
+    }
+  }
+
+  private ActionStats getActionStats(String action) {
+    String key = action == null ? "" : action;
+    ActionStats stats = actions.get(key);
+    if (stats == null) {
+      ActionStats newStats = new ActionStats();
+      stats = actions.putIfAbsent(key, newStats);
+      if (stats == null) {
+        stats = newStats;
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * Getter for vdx name.
+   *
+   * @return vdx name
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Getter for maximum pool size.
+   *
+   * @return maximum number of clients
+   */
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Getter for number of open clients.
+   *
+   * @return number of clients, idle or checked out
+   */
+  public int getSize() {
+    return size.get();
+  }
+
+  /**
+   * Getter for number of checked out clients.
+   *
+   * @return number of clients in use
+   */
+  public int getInUse() {
+    return inUse.get();
+  }
+
+  /**
+   * Getter for number of threads waiting in checkout.
+   *
+   * @return number of waiting threads
+   */
+  public int getWaiters() {
+    return waiters.get();
+  }
+
+  /**
+   * Getter for number of checkouts which timed out.
+   *
+   * @return number of failed checkouts
+   */
+  public long getAcquireTimeouts() {
+    return acquireTimeouts.get();
+  }
+
+  /**
+   * Yield pool statistics: size, usage, checkout wait histogram and request latency per
+   * vdx action.
+   *
+   * @return statistics string
+   */
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(name).append(": size=").append(size.get()).append('/').append(maxSize);
+    sb.append(" inUse=").append(inUse.get());
+    sb.append(" waiters=").append(waiters.get());
+    sb.append(" timeouts=").append(acquireTimeouts.get());
+    sb.append(" evictions=").append(evictions.get());
+    sb.append(" reclaimed=").append(reclaimed.get());
+    sb.append(" wait=[");
+    for (int i = 0; i < waitHistogram.length(); i++) {
+      if (i > 0) {
+        sb.append(' ');
+      }
+      sb.append(i < WAIT_BUCKETS.length ? "<=" + WAIT_BUCKETS[i] : ">" + WAIT_BUCKETS[i - 1]);
+      sb.append("ms:").append(waitHistogram.get(i));
+    }
+    sb.append(']');
+    for (Map.Entry<String, ActionStats> e : actions.entrySet()) {
+      sb.append(' ').append(e.getKey()).append('=').append(e.getValue());
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Client returned to pool with time of return.
+   */
+  private static class IdleClient {
+    final VDXClient client;
+    final long since;
+
+    IdleClient(VDXClient client) {
+      this.client = client;
+      since = System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * Request count, error count and latency of one vdx action.
+   */
+  private static class ActionStats {
+    final AtomicLong count = new AtomicLong();
+    final AtomicLong errors = new AtomicLong();
+    final AtomicLong totalNanos = new AtomicLong();
+    final AtomicLong maxNanos = new AtomicLong();
+
+    void record(long nanos, boolean ok) {
+      count.incrementAndGet();
+      if (!ok) {
+        errors.incrementAndGet();
+      }
+      totalNanos.addAndGet(nanos);
+      long max = maxNanos.get();
+      while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+        max = maxNanos.get();
+      }
+    }
+
+    public String toString() {
+      long n = count.get();
+      return String.format("{n=%d err=%d avg=%.1fms max=%.1fms}", n, errors.get(),
+                           n == 0 ? 0.0 : totalNanos.get() / 1e6 / n, maxNanos.get() / 1e6);
+    }
+  }
+}
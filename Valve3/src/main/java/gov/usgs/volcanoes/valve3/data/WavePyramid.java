@@ -0,0 +1,459 @@
+package gov.usgs.volcanoes.valve3.data;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.time.J2kSec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Multi-resolution min/max summary of waveform channels, shared by all requests. Each level
+ * divides time into buckets of a fixed number of seconds and keeps the minimum and maximum
+ * sample of every bucket for which complete data, or data older than a day, has been fetched.
+ * Waveform plots whose pixel columns are wider than a level's buckets are drawn from that level,
+ * so only the buckets not yet summarized have to be fetched from vdx, in whole buckets.
+ *
+ * <p>Levels are kept in memory-mapped segment files of 4096 buckets under the directory
+ * "wavePyramid.dir" (data.config), one directory per vdx, source, channel and level. A segment
+ * file starts with a bitmap of the filled buckets followed by the minimum and maximum of each
+ * bucket. At most "wavePyramid.maxMapped" segments are kept mapped. Buckets older than
+ * "wavePyramid.maxAge" days aren't summarized, and segment files holding only such buckets are
+ * deleted about once an hour.
+ *
+ * <p>Channels are summarized and read independently; requests for different channels don't wait
+ * for each other.
+ */
+public class WavePyramid {
+  private static final Logger LOGGER = LoggerFactory.getLogger(WavePyramid.class);
+
+  public static final String DEFAULT_LEVELS = "1,10,100,1000";
+  public static final int DEFAULT_MAX_MAPPED = 256;
+  public static final double DEFAULT_MAX_AGE = 30;
+
+  private static final int SEGMENT = 4096;
+  private static final int BITMAP = SEGMENT / 8;
+  private static final int SEGMENT_SIZE = BITMAP + SEGMENT * 8;
+  private static final String SUFFIX = ".pyr";
+
+  /* seconds after which missing data isn't expected to arrive any more */
+  private static final double SETTLE = 86400;
+
+  /* ms between deletions of expired segment files */
+  private static final long PURGE_INTERVAL = 3600000;
+
+  /* most spans of missing buckets fetched for one plot; closer spans are joined */
+  private static final int MAX_SPANS = 4;
+
+  private final File dir;
+  private final int[] levels;
+  private final double maxAge;
+  private final Map<String, MappedByteBuffer> segments;
+  private final ConcurrentHashMap<String, Object> locks;
+  private final AtomicLong lastPurge = new AtomicLong();
+
+  private final AtomicLong served = new AtomicLong();
+  private final AtomicLong fetched = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param dir       directory of segment files
+   * @param levels    bucket lengths of the levels in seconds, all positive
+   * @param maxMapped number of segments kept mapped
+   * @param maxAge    days of data kept, 0 to keep everything
+   */
+  public WavePyramid(File dir, int[] levels, final int maxMapped, double maxAge) {
+    for (int level : levels) {
+      if (level <= 0) {
+        throw new IllegalArgumentException("Illegal wave pyramid level " + level);
+      }
+    }
+    this.dir = dir;
+    this.levels = levels.clone();
+    Arrays.sort(this.levels);
+    this.maxAge = maxAge * 86400;
+    segments = new LinkedHashMap<String, MappedByteBuffer>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<String, MappedByteBuffer> eldest) {
+        return size() > maxMapped;
+      }
+    };
+    locks = new ConcurrentHashMap<String, Object>();
+    LOGGER.info("wavePyramid.dir: {}, wavePyramid.levels: {}, wavePyramid.maxAge: {}", dir,
+                Arrays.toString(this.levels), maxAge);
+  }
+
+  /**
+   * Yield lock guarding the segments of one channel.
+   */
+  private Object getLock(String key) {
+    Object lock = locks.get(key);
+    if (lock == null) {
+      Object newLock = new Object();
+      lock = locks.putIfAbsent(key, newLock);
+      if (lock == null) {
+        lock = newLock;
+      }
+    }
+    return lock;
+  }
+
+  /**
+   * Yield key of a channel, usable as relative directory name.
+   *
+   * @param vdxClient vdx name
+   * @param vdxSource vdx source name
+   * @param channel   channel id
+   * @return key
+   */
+  public static String key(String vdxClient, String vdxSource, String channel) {
+    return clean(vdxClient) + File.separator + clean(vdxSource) + File.separator + clean(channel);
+  }
+
+  private static String clean(String s) {
+    return s.replaceAll("[^A-Za-z0-9_.-]", "_");
+  }
+
+  /**
+   * Find the level to draw a plot from.
+   *
+   * @param columnSeconds time span of a pixel column
+   * @return bucket length of coarsest level with buckets not longer than a column, 0 if none
+   */
+  public int getBucket(double columnSeconds) {
+    int bucket = 0;
+    for (int b : levels) {
+      if (b <= columnSeconds) {
+        bucket = b;
+      }
+    }
+    return bucket;
+  }
+
+  /**
+   * Find the parts of a time span not summarized yet. Each run of missing buckets is returned
+   * as its own span, widened to whole buckets, so that summarized buckets between a missing
+   * edge and the rest aren't fetched again; if there are more than a few runs, those separated
+   * by the fewest summarized buckets are joined.
+   *
+   * @param key    channel key
+   * @param bucket bucket length of level
+   * @param st     start time
+   * @param et     end time
+   * @return start and end times of the missing spans in time order, empty if the level is
+   *         complete
+   */
+  public List<double[]> getMissing(String key, int bucket, double st, double et) {
+    long k0 = (long) Math.floor(st / bucket);
+    long k1 = Math.max(k0 + 1, (long) Math.ceil(et / bucket));
+    List<long[]> runs = new ArrayList<long[]>();
+    synchronized (getLock(key)) {
+      long[] run = null;
+      for (long k = k0; k < k1; k++) {
+        if (isFilled(key, bucket, k)) {
+          run = null;
+        } else if (run == null) {
+          run = new long[] {k, k + 1};
+          runs.add(run);
+        } else {
+          run[1] = k + 1;
+        }
+      }
+    }
+    while (runs.size() > MAX_SPANS) {
+      int join = 1;
+      for (int i = 2; i < runs.size(); i++) {
+        if (runs.get(i)[0] - runs.get(i - 1)[1] < runs.get(join)[0] - runs.get(join - 1)[1]) {
+          join = i;
+        }
+      }
+      runs.get(join - 1)[1] = runs.remove(join)[1];
+    }
+    if (runs.isEmpty()) {
+      served.incrementAndGet();
+    } else {
+      fetched.incrementAndGet();
+    }
+    List<double[]> spans = new ArrayList<double[]>(runs.size());
+    for (long[] run : runs) {
+      spans.add(new double[] {(double) run[0] * bucket, (double) run[1] * bucket});
+    }
+    return spans;
+  }
+
+  /**
+   * Summarize the buckets of a raw wave on every level. Buckets are summarized if the wave
+   * covers them completely, its first sample being less than a sample interval after the bucket
+   * start. Buckets containing gaps are only summarized once they are older than a day, as their
+   * data may still arrive; buckets older than the maximum age aren't summarized.
+   *
+   * @param key  channel key
+   * @param wave wave in raw time
+   */
+  public void add(String key, Wave wave) {
+    purgeExpired();
+    synchronized (getLock(key)) {
+      addWave(key, wave);
+    }
+  }
+
+  private void addWave(String key, Wave wave) {
+    int n = wave.numSamples();
+    double sr = wave.getSamplingRate();
+    if (n == 0 || !(sr > 0)) {
+      return;
+    }
+    double st = wave.getStartTime();
+    double et = st + n / sr;
+    int[] buffer = wave.buffer;
+    double now = J2kSec.now();
+    double settled = now - SETTLE;
+    double expired = maxAge > 0 ? now - maxAge : Double.NEGATIVE_INFINITY;
+    try {
+      for (int bucket : levels) {
+        long k0 = (long) Math.max(Math.floor((st - 1 / sr) / bucket) + 1,
+                                  Math.ceil(expired / bucket));
+        long k1 = (long) Math.floor(et / bucket);
+        for (long k = k0; k < k1; k++) {
+          int from = firstSample(k * bucket, st, sr, n);
+          int to = firstSample((k + 1) * bucket, st, sr, n);
+          if (from >= to) {
+            continue;
+          }
+          int min = Integer.MAX_VALUE;
+          int max = Integer.MIN_VALUE;
+          boolean complete = to - from >= (int) Math.floor(bucket * sr);
+          for (int i = from; i < to; i++) {
+            int v = buffer[i];
+            if (v == Wave.NO_DATA) {
+              complete = false;
+            } else {
+              min = Math.min(min, v);
+              max = Math.max(max, v);
+            }
+          }
+          if (complete || (k + 1) * bucket < settled) {
+            put(key, bucket, k, min, max);
+          }
+        }
+      }
+    } catch (IOException e) {
+      LOGGER.warn("Could not write wave pyramid of {}: {}", key, e.getMessage());
+    }
+  }
+
+  /**
+   * Build a wave with the minimum and maximum of every bucket of a time span, in this order.
+   * Buckets not summarized are taken from the raw waves, otherwise they are gaps.
+   *
+   * @param key    channel key
+   * @param bucket bucket length of level
+   * @param st     start time
+   * @param et     end time
+   * @param raw    raw waves of the missing parts of the span in raw time
+   * @return envelope wave with two samples per bucket in raw time, or null if there is no data
+   */
+  public Wave getEnvelope(String key, int bucket, double st, double et, List<Wave> raw) {
+    synchronized (getLock(key)) {
+      return envelope(key, bucket, st, et, raw);
+    }
+  }
+
+  private Wave envelope(String key, int bucket, double st, double et, List<Wave> raw) {
+    long k0 = (long) Math.floor(st / bucket);
+    long k1 = Math.max(k0 + 1, (long) Math.ceil(et / bucket));
+    int[] out = new int[(int) (k1 - k0) * 2];
+    boolean data = false;
+    for (long k = k0; k < k1; k++) {
+      int o = (int) (k - k0) * 2;
+      int[] minMax = get(key, bucket, k);
+      if (minMax == null) {
+        minMax = getRaw(raw, (double) k * bucket, (double) (k + 1) * bucket);
+      }
+      if (minMax == null || minMax[0] > minMax[1]) {
+        out[o] = Wave.NO_DATA;
+        out[o + 1] = Wave.NO_DATA;
+      } else {
+        out[o] = minMax[0];
+        out[o + 1] = minMax[1];
+        data = true;
+      }
+    }
+    return data ? new Wave(out, (double) k0 * bucket, 2.0 / bucket) : null;
+  }
+
+  /**
+   * Minimum and maximum of the samples of raw waves in a time span, gaps left out.
+   */
+  private static int[] getRaw(List<Wave> raw, double st, double et) {
+    int min = Integer.MAX_VALUE;
+    int max = Integer.MIN_VALUE;
+    for (Wave wave : raw) {
+      int n = wave.numSamples();
+      double sr = wave.getSamplingRate();
+      if (n == 0 || !(sr > 0)) {
+        continue;
+      }
+      int from = firstSample(st, wave.getStartTime(), sr, n);
+      int to = firstSample(et, wave.getStartTime(), sr, n);
+      for (int i = from; i < to; i++) {
+        int v = wave.buffer[i];
+        if (v != Wave.NO_DATA) {
+          min = Math.min(min, v);
+          max = Math.max(max, v);
+        }
+      }
+    }
+    return min > max ? null : new int[] {min, max};
+  }
+
+  /**
+   * Index of first sample at or after time t, limited to 0..n.
+   */
+  private static int firstSample(double t, double st, double sr, int n) {
+    double i = Math.ceil((t - st) * sr - 1e-6);
+    return (int) Math.max(0, Math.min(n, i));
+  }
+
+  private boolean isFilled(String key, int bucket, long k) {
+    return get(key, bucket, k) != null;
+  }
+
+  private int[] get(String key, int bucket, long k) {
+    long segment = segmentOf(k);
+    int i = (int) (k - segment * SEGMENT);
+    MappedByteBuffer buf;
+    try {
+      buf = getSegment(key, bucket, segment, false);
+    } catch (IOException e) {
+      LOGGER.warn("Could not read wave pyramid of {}: {}", key, e.getMessage());
+      return null;
+    }
+    if (buf == null || (buf.get(i >> 3) & (1 << (i & 7))) == 0) {
+      return null;
+    }
+    int pos = BITMAP + i * 8;
+    return new int[] {buf.getInt(pos), buf.getInt(pos + 4)};
+  }
+
+  private void put(String key, int bucket, long k, int min, int max) throws IOException {
+    long segment = segmentOf(k);
+    int i = (int) (k - segment * SEGMENT);
+    MappedByteBuffer buf = getSegment(key, bucket, segment, true);
+    int pos = BITMAP + i * 8;
+    buf.putInt(pos, min);
+    buf.putInt(pos + 4, max);
+    buf.put(i >> 3, (byte) (buf.get(i >> 3) | (1 << (i & 7))));
+  }
+
+  private static long segmentOf(long k) {
+    return k >= 0 ? k / SEGMENT : -((-k - 1) / SEGMENT) - 1;
+  }
+
+  /**
+   * Yield mapped segment file.
+   *
+   * @param create if true, missing segment files are created
+   * @return segment, null if it doesn't exist and create is false
+   */
+  private MappedByteBuffer getSegment(String key, int bucket, long segment, boolean create)
+      throws IOException {
+    String name = key + File.separator + bucket + File.separator + segment + SUFFIX;
+    MappedByteBuffer buf;
+    synchronized (segments) {
+      buf = segments.get(name);
+    }
+    if (buf != null) {
+      return buf;
+    }
+    File file = new File(dir, name);
+    if (!file.exists()) {
+      if (!create) {
+        return null;
+      }
+      file.getParentFile().mkdirs();
+    }
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      if (raf.length() != SEGMENT_SIZE) {
+        raf.setLength(SEGMENT_SIZE);
+      }
+      buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+    }
+    synchronized (segments) {
+      segments.put(name, buf);
+    }
+    return buf;
+  }
+
+  /**
+   * Delete segment files holding only buckets older than the maximum age, at most once per
+   * purge interval.
+   */
+  private void purgeExpired() {
+    long last = lastPurge.get();
+    long now = System.currentTimeMillis();
+    if (maxAge <= 0 || now - last < PURGE_INTERVAL || !lastPurge.compareAndSet(last, now)) {
+      return;
+    }
+    int deleted = purge(dir, J2kSec.now() - maxAge);
+    if (deleted > 0) {
+      LOGGER.info("Deleted {} expired wave pyramid segments", deleted);
+    }
+  }
+
+  private int purge(File d, double expired) {
+    File[] files = d.listFiles();
+    if (files == null) {
+      return 0;
+    }
+    int deleted = 0;
+    for (File f : files) {
+      if (f.isDirectory()) {
+        deleted += purge(f, expired);
+        continue;
+      }
+      String name = f.getName();
+      if (!name.endsWith(SUFFIX)) {
+        continue;
+      }
+      try {
+        long segment = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        int bucket = Integer.parseInt(d.getName());
+        if ((double) (segment + 1) * SEGMENT * bucket < expired) {
+          String key = dir.toURI().relativize(f.toURI()).getPath().replace('/',
+                                                                          File.separatorChar);
+          synchronized (segments) {
+            segments.remove(key);
+          }
+          if (f.delete()) {
+            deleted++;
+          }
+        }
+      } catch (NumberFormatException e) {
+        // not a segment file
+      }
+    }
+    return deleted;
+  }
+
+  /**
+   * Yield short description of pyramid use.
+   *
+   * @return statistics string
+   */
+  public String toString() {
+    return String.format("served=%d fetched=%d", served.get(), fetched.get());
+  }
+}
@@ -5,7 +5,6 @@ import gov.usgs.volcanoes.core.legacy.plot.map.GeoImageSet;
 import gov.usgs.volcanoes.core.legacy.plot.map.GeoLabel;
 import gov.usgs.volcanoes.core.legacy.plot.map.GeoLabelSet;
 import gov.usgs.volcanoes.core.legacy.plot.map.MapRenderer;
-import gov.usgs.volcanoes.core.legacy.util.Pool;
 import gov.usgs.volcanoes.core.math.proj.GeoRange;
 import gov.usgs.volcanoes.core.math.proj.TransverseMercator;
 import gov.usgs.volcanoes.core.util.UtilException;
@@ -13,8 +12,9 @@ import gov.usgs.volcanoes.valve3.PlotComponent;
 import gov.usgs.volcanoes.valve3.Plotter;
 import gov.usgs.volcanoes.valve3.Valve3;
 import gov.usgs.volcanoes.valve3.Valve3Exception;
+import gov.usgs.volcanoes.valve3.data.VDXClientLease;
+import gov.usgs.volcanoes.valve3.data.VDXClientPool;
 import gov.usgs.volcanoes.valve3.result.Valve3Plot;
-import gov.usgs.volcanoes.vdx.client.VDXClient;
 import gov.usgs.volcanoes.vdx.data.Channel;
 
 import java.awt.Color;
@@ -138,7 +138,6 @@ public class ChannelMapPlotter extends Plotter {
 
     // initialize variables
     List<String> stringList = null;
-    VDXClient client        = null;
     labels                  = new GeoLabelSet();
 
     // create a map of all the input parameters
@@ -147,16 +146,13 @@ public class ChannelMapPlotter extends Plotter {
     params.put("action", "channels");
 
     // checkout a connection to the database, the vdxClient could be null or invalid
-    Pool<VDXClient> pool = null;
+    VDXClientPool pool = null;
     pool = Valve3.getInstance().getDataHandler().getVDXClient(vdxClient);
     if (pool != null) {
-      client = pool.checkout();
-      try {
-        stringList = client.getTextData(params);
+      try (VDXClientLease lease = pool.lease()) {
+        stringList = lease.getTextData(params);
       } catch (UtilException e) {
         stringList = null;
-      } finally {
-        pool.checkin(client);
       }
     }
 
@@ -0,0 +1,220 @@
+package gov.usgs.volcanoes.valve3.plotter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Writes export rows as a compact columnar binary table ("bin" output type). Rows are collected
+ * into row groups; each column of a row group is encoded and deflate compressed on its own, so
+ * exports stream with bounded memory.
+ *
+ * <p>Layout, all numbers big-endian as written by DataOutputStream:
+ * <pre>
+ * table     := "VCOL" version:u8 columns:i32 name:utf* comments:i32 comment:utf* group* 0:i32
+ * group     := rows:i32 column*
+ * column    := encoding:u8 scale:u8 nulls:u8 rawLength:i32 length:i32 deflated(payload)
+ * payload   := [null bitmap, (rows + 7) / 8 bytes, bit set = value present, if nulls = 1]
+ *              values of the present rows
+ * </pre>
+ * Column 0 is the row time in j2ksec. Values are encoded losslessly as either
+ * <ul>
+ * <li>encoding 0: IEEE doubles, byte planes transposed (all first bytes, then all second bytes,
+ * ...), or</li>
+ * <li>encoding 1: decimals, value = n / 10^scale, with n stored as zigzag varint of the
+ * difference to the previous present n (starting from 0).</li>
+ * </ul>
+ * A file may hold several tables one after the other, one per exported component.
+ */
+public class ColumnarWriter {
+  public static final int DEFAULT_ROW_GROUP = 65536;
+
+  private static final byte[] MAGIC = {'V', 'C', 'O', 'L'};
+  private static final int VERSION = 1;
+  private static final int FLOAT64 = 0;
+  private static final int DECIMAL = 1;
+  private static final int MAX_SCALE = 6;
+  private static final double MAX_EXACT = 9007199254740992.0; // 2^53
+
+  private final DataOutputStream out;
+  private final int columns;
+  private final double[][] values;
+  private final boolean[][] present;
+  private final ByteArrayOutputStream raw;
+  private final Deflater deflater;
+  private final byte[] deflated;
+  private int rows;
+
+  /**
+   * Constructor, writes the table header.
+   *
+   * @param out          stream to write table to
+   * @param names        names of the value columns, time column excluded
+   * @param comments     comment lines
+   * @param rowGroupSize number of rows per row group
+   * @throws IOException if header can't be written
+   */
+  public ColumnarWriter(OutputStream out, List<String> names, List<String> comments,
+      int rowGroupSize) throws IOException {
+    this.out = new DataOutputStream(out);
+    columns = names.size() + 1;
+    values = new double[columns][rowGroupSize];
+    present = new boolean[columns][rowGroupSize];
+    raw = new ByteArrayOutputStream();
+    deflater = new Deflater();
+    deflated = new byte[64 * 1024];
+
+    this.out.write(MAGIC);
+    this.out.writeByte(VERSION);
+    this.out.writeInt(columns);
+    this.out.writeUTF("time");
+    for (String name : names) {
+      this.out.writeUTF(name);
+    }
+    this.out.writeInt(comments.size());
+    for (String comment : comments) {
+      this.out.writeUTF(comment);
+    }
+  }
+
+  /**
+   * Add row. The values are the elements after the time of each group, in order, as in the
+   * columns of a csv export; null values are kept as nulls.
+   *
+   * @param time row time
+   * @param line row data of each export source
+   * @throws IOException if a completed row group can't be written
+   */
+  public void addRow(double time, Double[][] line) throws IOException {
+    values[0][rows] = time;
+    present[0][rows] = true;
+    int c = 1;
+    for (Double[] group : line) {
+      for (int i = 1; i < group.length && c < columns; i++, c++) {
+        Double v = group[i];
+        present[c][rows] = v != null;
+        values[c][rows] = v == null ? 0 : v;
+      }
+    }
+    for (; c < columns; c++) {
+      present[c][rows] = false;
+    }
+    if (++rows == values[0].length) {
+      writeRowGroup();
+    }
+  }
+
+  /**
+   * Write remaining rows and end the table. The underlying stream is not closed.
+   *
+   * @throws IOException if table can't be written
+   */
+  public void finish() throws IOException {
+    try {
+      if (rows > 0) {
+        writeRowGroup();
+      }
+      out.writeInt(0);
+      out.flush();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private void writeRowGroup() throws IOException {
+    out.writeInt(rows);
+    for (int c = 0; c < columns; c++) {
+      writeColumn(values[c], present[c]);
+    }
+    rows = 0;
+  }
+
+  private void writeColumn(double[] v, boolean[] p) throws IOException {
+    raw.reset();
+    boolean nulls = false;
+    for (int i = 0; i < rows && !nulls; i++) {
+      nulls = !p[i];
+    }
+    if (nulls) {
+      for (int i = 0; i < rows; i += 8) {
+        int b = 0;
+        for (int j = 0; j < 8 && i + j < rows; j++) {
+          if (p[i + j]) {
+            b |= 1 << j;
+          }
+        }
+        raw.write(b);
+      }
+    }
+
+    int scale = decimalScale(v, p);
+    if (scale >= 0) {
+      double factor = Math.pow(10, scale);
+      long prev = 0;
+      for (int i = 0; i < rows; i++) {
+        if (p[i]) {
+          long n = (long) Math.rint(v[i] * factor);
+          long d = n - prev;
+          writeVarint((d << 1) ^ (d >> 63));
+          prev = n;
+        }
+      }
+    } else {
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        for (int i = 0; i < rows; i++) {
+          if (p[i]) {
+            raw.write((int) (Double.doubleToRawLongBits(v[i]) >>> shift));
+          }
+        }
+      }
+    }
+
+    out.writeByte(scale >= 0 ? DECIMAL : FLOAT64);
+    out.writeByte(Math.max(scale, 0));
+    out.writeByte(nulls ? 1 : 0);
+    out.writeInt(raw.size());
+    deflater.reset();
+    deflater.setInput(raw.toByteArray());
+    deflater.finish();
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.size() / 4 + 64);
+    while (!deflater.finished()) {
+      int n = deflater.deflate(deflated);
+      compressed.write(deflated, 0, n);
+    }
+    out.writeInt(compressed.size());
+    compressed.writeTo(out);
+  }
+
+  /**
+   * Find the smallest number of decimal places that represents all present values exactly.
+   *
+   * @return scale, or -1 if values have to be stored as doubles
+   */
+  private int decimalScale(double[] v, boolean[] p) {
+    for (int scale = 0; scale <= MAX_SCALE; scale++) {
+      double factor = Math.pow(10, scale);
+      boolean exact = true;
+      for (int i = 0; i < rows && exact; i++) {
+        if (p[i]) {
+          double n = Math.rint(v[i] * factor);
+          exact = Math.abs(n) < MAX_EXACT && n / factor == v[i];
+        }
+      }
+      if (exact) {
+        return scale;
+      }
+    }
+    return -1;
+  }
+
+  private void writeVarint(long value) {
+    while ((value & ~0x7fL) != 0) {
+      raw.write((int) ((value & 0x7f) | 0x80));
+      value >>>= 7;
+    }
+    raw.write((int) value);
+  }
+}
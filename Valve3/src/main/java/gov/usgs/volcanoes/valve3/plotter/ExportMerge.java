@@ -0,0 +1,122 @@
+package gov.usgs.volcanoes.valve3.plotter;
+
+import gov.usgs.volcanoes.vdx.data.ExportData;
+
+import java.util.Collection;
+
+/**
+ * Walks the rows of several export sources in time order, for aligning their rows into export
+ * lines. Sources are kept in an indexed min-heap keyed by the time of their current row, held as
+ * primitive doubles; rows with equal times come in order of source id.
+ *
+ * <p>Sources are indexed by {@link ExportData#exportDataId()}, which must lie in 0..n-1.
+ */
+public class ExportMerge {
+  private final ExportData[] sources;
+  private final Double[][] rows;
+  private final double[] times;
+  private final int[] heap;
+  private int size;
+
+  /**
+   * Constructor. Sources without data are ignored.
+   *
+   * @param data export sources, positioned at their first row
+   */
+  public ExportMerge(Collection<ExportData> data) {
+    int n = data.size();
+    sources = new ExportData[n];
+    rows = new Double[n][];
+    times = new double[n];
+    heap = new int[n];
+    for (ExportData ed : data) {
+      int id = ed.exportDataId();
+      sources[id] = ed;
+      Double[] row = ed.currExportDatum();
+      if (row != null) {
+        rows[id] = row;
+        times[id] = row[0];
+        heap[size++] = id;
+      }
+    }
+    for (int i = size / 2 - 1; i >= 0; i--) {
+      siftDown(i);
+    }
+  }
+
+  /**
+   * Check for remaining rows.
+   *
+   * @return true if all sources are exhausted
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Getter for the source of the earliest remaining row.
+   *
+   * @return source id
+   */
+  public int source() {
+    return heap[0];
+  }
+
+  /**
+   * Getter for the time of the earliest remaining row.
+   *
+   * @return row time
+   */
+  public double time() {
+    return times[heap[0]];
+  }
+
+  /**
+   * Getter for the earliest remaining row.
+   *
+   * @return row, time at index 0
+   */
+  public Double[] row() {
+    return rows[heap[0]];
+  }
+
+  /**
+   * Move past the earliest remaining row.
+   */
+  public void advance() {
+    int id = heap[0];
+    Double[] row = sources[id].nextExportDatum();
+    if (row == null) {
+      rows[id] = null;
+      heap[0] = heap[--size];
+    } else {
+      rows[id] = row;
+      times[id] = row[0];
+    }
+    if (size > 0) {
+      siftDown(0);
+    }
+  }
+
+  private boolean less(int a, int b) {
+    int cmp = Double.compare(times[a], times[b]);
+    return cmp < 0 || (cmp == 0 && a < b);
+  }
+
+  private void siftDown(int i) {
+    int id = heap[i];
+    int half = size / 2;
+    while (i < half) {
+      int child = 2 * i + 1;
+      if (child + 1 < size && less(heap[child + 1], heap[child])) {
+        child++;
+      }
+      if (!less(heap[child], id)) {
+        break;
+      }
+      heap[i] = heap[child];
+      i = child;
+    }
+    heap[i] = id;
+  }
+}
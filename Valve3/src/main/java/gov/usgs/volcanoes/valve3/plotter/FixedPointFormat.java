@@ -0,0 +1,99 @@
+package gov.usgs.volcanoes.valve3.plotter;
+
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Formats doubles like String.format("%W.Pf", v) without creating a Formatter and intermediate
+ * strings for every value. Digits are built in a reusable buffer and appended to the caller's
+ * StringBuilder, so exports of many rows don't allocate per value.
+ *
+ * <p>Values are rounded half up like Formatter does. Values which lie so close to a rounding tie
+ * that double arithmetic can't decide the direction, and values too large or not finite, are
+ * handed to String.format, so the output is always identical to it.
+ *
+ * <p>Instances keep state and must not be shared between threads.
+ */
+public class FixedPointFormat {
+  private static final int MAX_PRECISION = 9;
+  private static final double MAX_SCALED = 1e15;
+  private static final long[] POW10 = {
+      1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+  };
+
+  private final int width;
+  private final int precision;
+  private final String format;
+  private final char zero;
+  private final char decimalSeparator;
+  private final char[] buf;
+
+  /**
+   * Constructor.
+   *
+   * @param width     minimum field width, left padded with spaces
+   * @param precision number of digits after the decimal separator
+   */
+  public FixedPointFormat(int width, int precision) {
+    this.width = width;
+    this.precision = precision;
+    format = "%" + width + "." + precision + "f";
+    DecimalFormatSymbols dfs =
+        DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT));
+    zero = dfs.getZeroDigit();
+    decimalSeparator = dfs.getDecimalSeparator();
+    buf = new char[32];
+  }
+
+  /**
+   * Constructor for the export precision setting.
+   *
+   * @param fixedWidth width and precision, as given by ExportConfig.getFixedWidth()
+   */
+  public FixedPointFormat(int[] fixedWidth) {
+    this(fixedWidth[0], fixedWidth[1]);
+  }
+
+  /**
+   * Append formatted value.
+   *
+   * @param sb destination
+   * @param v  value to format
+   * @return sb
+   */
+  public StringBuilder append(StringBuilder sb, double v) {
+    if (precision < 0 || precision > MAX_PRECISION || Double.isNaN(v) || Double.isInfinite(v)) {
+      return sb.append(String.format(format, v));
+    }
+    double scaled = Math.abs(v) * POW10[precision];
+    if (!(scaled < MAX_SCALED)) {
+      return sb.append(String.format(format, v));
+    }
+    double floor = Math.floor(scaled);
+    double frac = scaled - floor;
+    if (Math.abs(frac - 0.5) <= 4 * Math.ulp(scaled)) {
+      return sb.append(String.format(format, v));
+    }
+    long n = (long) floor + (frac > 0.5 ? 1 : 0);
+
+    int pos = buf.length;
+    for (int i = 0; i < precision; i++) {
+      buf[--pos] = (char) (zero + (int) (n % 10));
+      n /= 10;
+    }
+    if (precision > 0) {
+      buf[--pos] = decimalSeparator;
+    }
+    do {
+      buf[--pos] = (char) (zero + (int) (n % 10));
+      n /= 10;
+    } while (n > 0);
+    if (Double.doubleToRawLongBits(v) < 0) {
+      buf[--pos] = '-';
+    }
+    for (int pad = width - (buf.length - pos); pad > 0; pad--) {
+      sb.append(' ');
+    }
+    return sb.append(buf, pos, buf.length - pos);
+  }
+}
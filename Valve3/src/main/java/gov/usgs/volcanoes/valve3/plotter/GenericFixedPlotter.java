@@ -4,7 +4,6 @@ import gov.usgs.volcanoes.core.data.GenericDataMatrix;
 import gov.usgs.volcanoes.core.legacy.plot.Plot;
 import gov.usgs.volcanoes.core.legacy.plot.PlotException;
 import gov.usgs.volcanoes.core.legacy.plot.render.MatrixRenderer;
-import gov.usgs.volcanoes.core.legacy.util.Pool;
 import gov.usgs.volcanoes.core.math.Butterworth;
 import gov.usgs.volcanoes.core.math.Butterworth.FilterType;
 import gov.usgs.volcanoes.core.util.StringUtils;
@@ -12,8 +11,9 @@ import gov.usgs.volcanoes.valve3.PlotComponent;
 import gov.usgs.volcanoes.valve3.Plotter;
 import gov.usgs.volcanoes.valve3.Valve3;
 import gov.usgs.volcanoes.valve3.Valve3Exception;
+import gov.usgs.volcanoes.valve3.data.VDXClientLease;
+import gov.usgs.volcanoes.valve3.data.VDXClientPool;
 import gov.usgs.volcanoes.valve3.result.Valve3Plot;
-import gov.usgs.volcanoes.vdx.client.VDXClient;
 import gov.usgs.volcanoes.vdx.data.Channel;
 import gov.usgs.volcanoes.vdx.data.Column;
 import gov.usgs.volcanoes.vdx.data.ExportData;
@@ -130,35 +130,32 @@ public class GenericFixedPlotter extends RawDataPlotter {
     addDownsamplingInfo(params);
 
     // checkout a connection to the database
-    Pool<VDXClient> pool = Valve3.getInstance().getDataHandler().getVDXClient(vdxClient);
+    VDXClientPool pool = Valve3.getInstance().getDataHandler().getVDXClient(vdxClient);
     if (pool != null) {
-      VDXClient client = pool.checkout();
-
-      // iterate through each of the selected channels and place the data in the map
-      for (String channel : channels) {
-        params.put("ch", channel);
-        GenericDataMatrix data;
-        try {
-          data = (GenericDataMatrix) client.getBinaryData(params);
-        } catch (Exception e) {
-          exceptionThrown = true;
-          exceptionMsg = e.getMessage();
-          logger.debug(exceptionMsg);
-          break;
-        }
+      try (VDXClientLease lease = pool.lease()) {
+        // iterate through each of the selected channels and place the data in the map
+        for (String channel : channels) {
+          params.put("ch", channel);
+          GenericDataMatrix data;
+          try {
+            data = (GenericDataMatrix) getBinaryData(lease, params);
+          } catch (Exception e) {
+            exceptionThrown = true;
+            exceptionMsg = e.getMessage();
+            logger.debug(exceptionMsg);
+            break;
+          }
 
-        // if data was collected
-        if (data != null && data.rows() > 0) {
-          logger.debug("Data not null.");
-          data.adjustTime(timeOffset);
-        } else {
-          logger.debug("Data null or rows = 0.");
+          // if data was collected
+          if (data != null && data.rows() > 0) {
+            logger.debug("Data not null.");
+            data.adjustTime(timeOffset);
+          } else {
+            logger.debug("Data null or rows = 0.");
+          }
+          channelDataMap.put(Integer.valueOf(channel), data);
         }
-        channelDataMap.put(Integer.valueOf(channel), data);
       }
-
-      // check back in our connection to the database
-      pool.checkin(client);
     }
 
     // if a data limit message exists, then throw exception
@@ -368,6 +365,17 @@ public class GenericFixedPlotter extends RawDataPlotter {
     }
   }
 
+  /**
+   * Request metadata for this plotter from vdx server.
+   *
+   * @see RawDataPlotter#getMetadata
+   */
+  protected void getMetadata() throws Valve3Exception {
+    channelsMap = getChannels(vdxSource, vdxClient);
+    ranksMap = getRanks(vdxSource, vdxClient);
+    columnsList = getColumns(vdxSource, vdxClient);
+  }
+
   /**
    * Concrete realization of abstract method. Initialize MatrixRenderers for left and right axis
    * (plot may have 2 different value axis) Generate PNG image to file with random file name if v3p
@@ -380,11 +388,7 @@ public class GenericFixedPlotter extends RawDataPlotter {
   public void plot(Valve3Plot v3p, PlotComponent comp) throws Valve3Exception, PlotException {
 
     forExport = (v3p == null);
-    channelsMap = getChannels(vdxSource, vdxClient);
-    ranksMap = getRanks(vdxSource, vdxClient);
-    columnsList = getColumns(vdxSource, vdxClient);
-    comp.setPlotter(this.getClass().getName());
-    getInputs(comp);
+    prepare(comp);
 
     // get the rank object for this request
     Rank rank = new Rank();
@@ -400,7 +404,7 @@ public class GenericFixedPlotter extends RawDataPlotter {
     }
 
     // this is a legitimate request so lookup the data from the database and plot it
-    getData(comp);
+    fetchData(comp);
     plotData(v3p, comp, rank);
 
     if (!forExport) {
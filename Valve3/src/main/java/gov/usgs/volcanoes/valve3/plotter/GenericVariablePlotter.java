@@ -7,19 +7,20 @@ import gov.usgs.volcanoes.core.legacy.plot.render.AxisRenderer;
 import gov.usgs.volcanoes.core.legacy.plot.render.MatrixRenderer;
 import gov.usgs.volcanoes.core.legacy.plot.render.PointRenderer;
 import gov.usgs.volcanoes.core.legacy.plot.render.ShapeRenderer;
-import gov.usgs.volcanoes.core.legacy.util.Pool;
 import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.util.UtilException;
 import gov.usgs.volcanoes.valve3.PlotComponent;
 import gov.usgs.volcanoes.valve3.Plotter;
 import gov.usgs.volcanoes.valve3.Valve3;
 import gov.usgs.volcanoes.valve3.Valve3Exception;
+import gov.usgs.volcanoes.valve3.data.VDXClientLease;
+import gov.usgs.volcanoes.valve3.data.VDXClientPool;
 import gov.usgs.volcanoes.valve3.result.Valve3Plot;
-import gov.usgs.volcanoes.vdx.client.VDXClient;
 import gov.usgs.volcanoes.vdx.data.Column;
 
 import java.awt.Color;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -126,6 +127,23 @@ public class GenericVariablePlotter extends RawDataPlotter {
     }
   }
 
+  /**
+   * Columns named "45" are plotted as running sums of the samples.
+   */
+  @Override
+  protected boolean isComputedFromSamples() {
+    for (List<Column> columns : Arrays.asList(leftColumns, rightColumns)) {
+      if (columns != null) {
+        for (Column col : columns) {
+          if (col.name.equals("45")) {
+            return true;
+          }
+        }
+      }
+    }
+    return super.isComputedFromSamples();
+  }
+
   /**
    * Gets binary data from VDX server.
    *
@@ -136,7 +154,6 @@ public class GenericVariablePlotter extends RawDataPlotter {
     // initialize variables
     boolean exceptionThrown = false;
     String exceptionMsg = "";
-    VDXClient client = null;
 
     // create a map of all the input parameters
     Map<String, String> params = new LinkedHashMap<String, String>();
@@ -150,27 +167,25 @@ public class GenericVariablePlotter extends RawDataPlotter {
     addDownsamplingInfo(params);
 
     // checkout a connection to the database
-    Pool<VDXClient> pool = null;
+    VDXClientPool pool = null;
     pool = Valve3.getInstance().getDataHandler().getVDXClient(vdxClient);
     if (pool != null) {
-      client = pool.checkout();
-      try {
-        data = (GenericDataMatrix) client.getBinaryData(params);
-      } catch (UtilException e) {
-        exceptionThrown = true;
-        exceptionMsg = e.getMessage();
-      } catch (Exception e) {
-        exceptionThrown = true;
-        exceptionMsg = e.getMessage();
-      }
+      try (VDXClientLease lease = pool.lease()) {
+        try {
+          data = (GenericDataMatrix) getBinaryData(lease, params);
+        } catch (UtilException e) {
+          exceptionThrown = true;
+          exceptionMsg = e.getMessage();
+        } catch (Exception e) {
+          exceptionThrown = true;
+          exceptionMsg = e.getMessage();
+        }
 
-      // if data was collected
-      if (data != null && data.rows() > 0) {
-        data.adjustTime(timeOffset);
+        // if data was collected
+        if (data != null && data.rows() > 0) {
+          data.adjustTime(timeOffset);
+        }
       }
-
-      // check back in our connection to the database
-      pool.checkin(client);
     }
 
     // if a data limit message exists, then throw exception
@@ -324,15 +339,14 @@ public class GenericVariablePlotter extends RawDataPlotter {
   public void plot(Valve3Plot v3p, PlotComponent comp) throws Valve3Exception, PlotException {
 
     forExport = (v3p == null);
-    comp.setPlotter(this.getClass().getName());
-    getInputs(comp);
+    prepare(comp);
 
     // plot configuration
     if (!forExport) {
       v3p.setExportable(true);
     }
     // this is a legitimate request so lookup the data from the database and plot it
-    getData(comp);
+    fetchData(comp);
     plotData(v3p, comp);
 
     if (!forExport) {
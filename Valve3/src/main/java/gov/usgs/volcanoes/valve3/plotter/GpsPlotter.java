@@ -14,7 +14,6 @@ import gov.usgs.volcanoes.core.legacy.plot.render.EllipseVectorRenderer;
 import gov.usgs.volcanoes.core.legacy.plot.render.MatrixRenderer;
 import gov.usgs.volcanoes.core.legacy.plot.render.Renderer;
 import gov.usgs.volcanoes.core.legacy.plot.render.TextRenderer;
-import gov.usgs.volcanoes.core.legacy.util.Pool;
 import gov.usgs.volcanoes.core.math.Butterworth;
 import gov.usgs.volcanoes.core.math.Butterworth.FilterType;
 import gov.usgs.volcanoes.core.math.proj.GeoRange;
@@ -26,8 +25,9 @@ import gov.usgs.volcanoes.valve3.PlotComponent;
 import gov.usgs.volcanoes.valve3.Plotter;
 import gov.usgs.volcanoes.valve3.Valve3;
 import gov.usgs.volcanoes.valve3.Valve3Exception;
+import gov.usgs.volcanoes.valve3.data.VDXClientLease;
+import gov.usgs.volcanoes.valve3.data.VDXClientPool;
 import gov.usgs.volcanoes.valve3.result.Valve3Plot;
-import gov.usgs.volcanoes.vdx.client.VDXClient;
 import gov.usgs.volcanoes.vdx.data.Channel;
 import gov.usgs.volcanoes.vdx.data.Column;
 import gov.usgs.volcanoes.vdx.data.ExportData;
@@ -314,6 +314,14 @@ public class GpsPlotter extends RawDataPlotter {
     }
   }
 
+  /**
+   * Velocities and displacements are computed from the samples.
+   */
+  @Override
+  protected boolean isComputedFromSamples() {
+    return plotType != PlotType.TIME_SERIES || super.isComputedFromSamples();
+  }
+
   /**
    * Gets binary data from VDX.
    *
@@ -326,7 +334,6 @@ public class GpsPlotter extends RawDataPlotter {
     String exceptionMsg       = "";
     boolean blexceptionThrown = false;
     String blexceptionMsg     = "";
-    VDXClient client          = null;
     channelDataMap            = new LinkedHashMap<Integer, GpsData>();
     String[] channels         = ch.split(",");
 
@@ -340,55 +347,52 @@ public class GpsPlotter extends RawDataPlotter {
     addDownsamplingInfo(params);
 
     // checkout a connection to the database
-    Pool<VDXClient> pool = null;
+    VDXClientPool pool = null;
     pool = Valve3.getInstance().getDataHandler().getVDXClient(vdxClient);
     if (pool != null) {
-      client = pool.checkout();
-
-      // iterate through each of the selected channels and place the data in the map
-      for (String channel : channels) {
-        params.put("ch", channel);
-        GpsData data = null;
-        try {
-          data = (GpsData) client.getBinaryData(params);
-        } catch (UtilException e) {
-          exceptionThrown = true;
-          exceptionMsg = e.getMessage();
-          break;
-        } catch (Exception e) {
-          exceptionThrown = true;
-          exceptionMsg = e.getMessage();
-          break;
-        }
-
-        // if data was collected
-        if (data != null && data.observations() > 0) {
-          data.adjustTime(timeOffset);
-        }
-        channelDataMap.put(Integer.valueOf(channel), data);
-      }
+      try (VDXClientLease lease = pool.lease()) {
+        // iterate through each of the selected channels and place the data in the map
+        for (String channel : channels) {
+          params.put("ch", channel);
+          GpsData data = null;
+          try {
+            data = (GpsData) lease.getBinaryData(params);
+          } catch (UtilException e) {
+            exceptionThrown = true;
+            exceptionMsg = e.getMessage();
+            break;
+          } catch (Exception e) {
+            exceptionThrown = true;
+            exceptionMsg = e.getMessage();
+            break;
+          }
 
-      // if a baseline was selected then retrieve that data from the database
-      if (bl != null) {
-        params.put("ch", bl);
-        try {
-          baselineData = (GpsData) client.getBinaryData(params);
-        } catch (UtilException e) {
-          blexceptionThrown = true;
-          blexceptionMsg = e.getMessage();
-        } catch (Exception e) {
-          blexceptionThrown = true;
-          blexceptionMsg = e.getMessage();
-        }
+          // if data was collected
+          if (data != null && data.observations() > 0) {
+            data.adjustTime(timeOffset);
+          }
+          channelDataMap.put(Integer.valueOf(channel), data);
+        }
+
+        // if a baseline was selected then retrieve that data from the database
+        if (bl != null) {
+          params.put("ch", bl);
+          try {
+            baselineData = (GpsData) lease.getBinaryData(params);
+          } catch (UtilException e) {
+            blexceptionThrown = true;
+            blexceptionMsg = e.getMessage();
+          } catch (Exception e) {
+            blexceptionThrown = true;
+            blexceptionMsg = e.getMessage();
+          }
 
-        // if data was collected
-        if (baselineData != null && baselineData.observations() > 0) {
-          baselineData.adjustTime(timeOffset);
+          // if data was collected
+          if (baselineData != null && baselineData.observations() > 0) {
+            baselineData.adjustTime(timeOffset);
+          }
         }
       }
-
-      // check back in our connection to the database
-      pool.checkin(client);
     }
 
     // if a data limit message exists, then throw exception
@@ -829,6 +833,17 @@ public class GpsPlotter extends RawDataPlotter {
     }
   }
 
+  /**
+   * Request metadata for this plotter from vdx server.
+   *
+   * @see RawDataPlotter#getMetadata
+   */
+  protected void getMetadata() throws Valve3Exception {
+    channelsMap = getChannels(vdxSource, vdxClient);
+    ranksMap = getRanks(vdxSource, vdxClient);
+    columnsList = getColumns(vdxSource, vdxClient);
+  }
+
   /**
    * Concrete realization of abstract method. Generate PNG image to local file. If v3p is null,
    * prepare data for export -- assumes csvData, csvData & csvIndex initialized.
@@ -840,11 +855,7 @@ public class GpsPlotter extends RawDataPlotter {
   public void plot(Valve3Plot v3p, PlotComponent comp) throws Valve3Exception, PlotException {
 
     forExport = (v3p == null);
-    channelsMap = getChannels(vdxSource, vdxClient);
-    ranksMap = getRanks(vdxSource, vdxClient);
-    columnsList = getColumns(vdxSource, vdxClient);
-    comp.setPlotter(this.getClass().getName());
-    getInputs(comp);
+    prepare(comp);
 
     // get the rank object for this request
     Rank rank = new Rank();
@@ -893,7 +904,7 @@ public class GpsPlotter extends RawDataPlotter {
     }
 
     // this is a legitimate request so lookup the data from the database and plot it
-    getData(comp);
+    fetchData(comp);
     plotData(v3p, comp, rank);
 
     if (!forExport) {
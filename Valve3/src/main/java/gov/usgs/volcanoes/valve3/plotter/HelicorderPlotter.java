@@ -5,14 +5,11 @@ import gov.usgs.volcanoes.core.legacy.plot.HelicorderSettings;
 import gov.usgs.volcanoes.core.legacy.plot.Plot;
 import gov.usgs.volcanoes.core.legacy.plot.PlotException;
 import gov.usgs.volcanoes.core.legacy.plot.render.HelicorderRenderer;
-import gov.usgs.volcanoes.core.legacy.util.Pool;
-import gov.usgs.volcanoes.core.util.UtilException;
 import gov.usgs.volcanoes.valve3.PlotComponent;
 import gov.usgs.volcanoes.valve3.Plotter;
 import gov.usgs.volcanoes.valve3.Valve3;
 import gov.usgs.volcanoes.valve3.Valve3Exception;
 import gov.usgs.volcanoes.valve3.result.Valve3Plot;
-import gov.usgs.volcanoes.vdx.client.VDXClient;
 import gov.usgs.volcanoes.vdx.data.Channel;
 import gov.usgs.volcanoes.vdx.data.ExportData;
 import gov.usgs.volcanoes.vdx.data.MatrixExporter;
@@ -90,9 +87,6 @@ public class HelicorderPlotter extends RawDataPlotter {
   protected void getData(PlotComponent comp) throws Valve3Exception {
 
     // initialize variables
-    boolean exceptionThrown = false;
-    String exceptionMsg = "";
-    VDXClient client = null;
     channelDataMap = new LinkedHashMap<Integer, HelicorderData>();
     String[] channels = ch.split(",");
 
@@ -103,27 +97,14 @@ public class HelicorderPlotter extends RawDataPlotter {
     params.put("st", Double.toString(startTime));
     params.put("et", Double.toString(endTime));
 
-    // checkout a connection to the database
-    Pool<VDXClient> pool = null;
-    pool = Valve3.getInstance().getDataHandler().getVDXClient(vdxClient);
-    if (pool != null) {
-      client = pool.checkout();
+    // request the data for all selected channels
+    Object[] channelData = getBinaryData(params, channels);
+    if (channelData != null) {
 
       // iterate through each of the selected channels and place the data in the map
-      for (String channel : channels) {
-        params.put("ch", channel);
-        HelicorderData data = null;
-        try {
-          data = (HelicorderData) client.getBinaryData(params);
-        } catch (UtilException e) {
-          exceptionThrown = true;
-          exceptionMsg = e.getMessage();
-          break;
-        } catch (Exception e) {
-          exceptionThrown = true;
-          exceptionMsg = e.getMessage();
-          break;
-        }
+      for (int i = 0; i < channels.length; i++) {
+        String channel = channels[i];
+        HelicorderData data = (HelicorderData) channelData[i];
 
         // if data was collected
         if (data != null && data.rows() > 0) {
@@ -139,14 +120,6 @@ public class HelicorderPlotter extends RawDataPlotter {
 
         channelDataMap.put(Integer.valueOf(channel), data);
       }
-
-      // check back in our connection to the database
-      pool.checkin(client);
-    }
-
-    // if a data limit message exists, then throw exception
-    if (exceptionThrown) {
-      throw new Valve3Exception(exceptionMsg);
     }
   }
 
@@ -251,6 +224,15 @@ public class HelicorderPlotter extends RawDataPlotter {
     }
   }
 
+  /**
+   * Request metadata for this plotter from vdx server.
+   *
+   * @see RawDataPlotter#getMetadata
+   */
+  protected void getMetadata() throws Valve3Exception {
+    channelsMap = getChannels(vdxSource, vdxClient);
+  }
+
   /**
    * Concrete realization of abstract method. Initialize HelicorderRenderer, generate PNG image to
    * local file. If v3p is null, prepare data for export -- assumes csvData, csvData & csvIndex
@@ -263,16 +245,14 @@ public class HelicorderPlotter extends RawDataPlotter {
   public void plot(Valve3Plot v3p, PlotComponent comp) throws Valve3Exception, PlotException {
 
     forExport = (v3p == null);
-    channelsMap = getChannels(vdxSource, vdxClient);
-    comp.setPlotter(this.getClass().getName());
-    getInputs(comp);
+    prepare(comp);
 
     // plot configuration
     if (!forExport) {
       v3p.setExportable(true);
     }
     // this is a legitimate request so lookup the data from the database and plot it
-    getData(comp);
+    fetchData(comp);
     plotData(v3p, comp);
 
     if (!forExport) {
@@ -15,7 +15,6 @@ import gov.usgs.volcanoes.core.legacy.plot.render.InvertedFrameRenderer;
 import gov.usgs.volcanoes.core.legacy.plot.render.Renderer;
 import gov.usgs.volcanoes.core.legacy.plot.render.ShapeRenderer;
 import gov.usgs.volcanoes.core.legacy.plot.transform.ArbDepthCalculator;
-import gov.usgs.volcanoes.core.legacy.util.Pool;
 import gov.usgs.volcanoes.core.math.proj.GeoRange;
 import gov.usgs.volcanoes.core.math.proj.TransverseMercator;
 import gov.usgs.volcanoes.core.time.J2kSec;
@@ -25,8 +24,9 @@ import gov.usgs.volcanoes.valve3.PlotComponent;
 import gov.usgs.volcanoes.valve3.Plotter;
 import gov.usgs.volcanoes.valve3.Valve3;
 import gov.usgs.volcanoes.valve3.Valve3Exception;
+import gov.usgs.volcanoes.valve3.data.VDXClientLease;
+import gov.usgs.volcanoes.valve3.data.VDXClientPool;
 import gov.usgs.volcanoes.valve3.result.Valve3Plot;
-import gov.usgs.volcanoes.vdx.client.VDXClient;
 import gov.usgs.volcanoes.vdx.data.ExportData;
 import gov.usgs.volcanoes.vdx.data.HistogramExporter;
 import gov.usgs.volcanoes.vdx.data.HypocenterExporter;
@@ -386,7 +386,6 @@ public class HypocenterPlotter extends RawDataPlotter {
     // initialize variables
     boolean exceptionThrown = false;
     String exceptionMsg = "";
-    VDXClient client = null;
 
     double twest = range.getWest();
     double teast = range.getEast();
@@ -438,31 +437,28 @@ public class HypocenterPlotter extends RawDataPlotter {
     params.put("radius", Double.toString(radius));
 
     // checkout a connection to the database
-    Pool<VDXClient> pool = null;
+    VDXClientPool pool = null;
     pool = Valve3.getInstance().getDataHandler().getVDXClient(vdxClient);
     if (pool != null) {
-      client = pool.checkout();
-
-      // get the data, if nothing is returned then create an empty list
-      try {
-        hypos = (HypocenterList) client.getBinaryData(params);
-      } catch (UtilException e) {
-        exceptionThrown = true;
-        exceptionMsg = e.getMessage();
-      } catch (Exception e) {
-        hypos = null;
-      }
+      try (VDXClientLease lease = pool.lease()) {
+        // get the data, if nothing is returned then create an empty list
+        try {
+          hypos = (HypocenterList) lease.getBinaryData(params);
+        } catch (UtilException e) {
+          exceptionThrown = true;
+          exceptionMsg = e.getMessage();
+        } catch (Exception e) {
+          hypos = null;
+        }
 
-      // we return an empty list if there is no data, because it is valid to have no hypocenters
-      // for a time period
-      if (hypos != null) {
-        hypos.adjustTime(timeOffset);
-      } else {
-        hypos = new HypocenterList();
+        // we return an empty list if there is no data, because it is valid to have no hypocenters
+        // for a time period
+        if (hypos != null) {
+          hypos.adjustTime(timeOffset);
+        } else {
+          hypos = new HypocenterList();
+        }
       }
-
-      // check back in our connection to the database
-      pool.checkin(client);
     }
 
     // if a data limit message exists, then throw exception
@@ -958,6 +954,15 @@ public class HypocenterPlotter extends RawDataPlotter {
     }
   }
 
+  /**
+   * Request metadata for this plotter from vdx server.
+   *
+   * @see RawDataPlotter#getMetadata
+   */
+  protected void getMetadata() throws Valve3Exception {
+    ranksMap = getRanks(vdxSource, vdxClient);
+  }
+
   /**
    * Concrete realization of abstract method. Generate PNG image (hypocenters map or histogram,
    * depends on plot type) to file with random name. If v3p is null, prepare data for export --
@@ -970,9 +975,7 @@ public class HypocenterPlotter extends RawDataPlotter {
   public void plot(Valve3Plot v3p, PlotComponent comp) throws Valve3Exception, PlotException {
 
     forExport = (v3p == null);
-    ranksMap = getRanks(vdxSource, vdxClient);
-    comp.setPlotter(this.getClass().getName());
-    getInputs(comp);
+    prepare(comp);
 
     // get the rank object for this request
     Rank rank = new Rank();
@@ -988,7 +991,7 @@ public class HypocenterPlotter extends RawDataPlotter {
     }
 
     // this is a legitimate request so lookup the data from the database and plot it
-    getData(comp);
+    fetchData(comp);
     plotData(v3p, comp, rank);
 
     if (!forExport) {
@@ -0,0 +1,101 @@
+package gov.usgs.volcanoes.valve3.plotter;
+
+import cern.colt.matrix.DoubleMatrix2D;
+
+import java.util.Arrays;
+
+/**
+ * Reduces the rows of a data matrix to those needed to draw its columns as lines at plot
+ * resolution. Rows are grouped by pixel column of their time (column 0); of each group the first
+ * and last row are kept, and for every value column the rows holding its minimum and maximum and
+ * its first missing (NaN) value. Lines drawn through the kept rows cover the same pixels as lines
+ * through all rows, peaks and gaps included.
+ */
+public class MatrixEnvelope {
+  /* matrices with fewer rows per pixel column than this are not worth reducing */
+  private static final int MIN_REDUCTION = 4;
+
+  private MatrixEnvelope() {}
+
+  /**
+   * Yield envelope of a data matrix.
+   *
+   * @param data  matrix with time in column 0
+   * @param st    time at the left edge of the plot
+   * @param et    time at the right edge of the plot
+   * @param width width of the plot in pixels
+   * @return view of the kept rows, or the matrix itself if it has few rows per pixel column
+   */
+  public static DoubleMatrix2D envelope(DoubleMatrix2D data, double st, double et, int width) {
+    int rows = data.rows();
+    int columns = data.columns();
+    if (width <= 0 || !(et > st) || rows <= MIN_REDUCTION * width) {
+      return data;
+    }
+
+    boolean[] keep = new boolean[rows];
+    int[] minRow = new int[columns];
+    int[] maxRow = new int[columns];
+    int[] nanRow = new int[columns];
+    double scale = width / (et - st);
+    int bucket = Integer.MIN_VALUE;
+    for (int r = 0; r < rows; r++) {
+      double x = (data.getQuick(r, 0) - st) * scale;
+      int b = x < 0 ? -1 : (x >= width ? width : (int) x);
+      if (b != bucket) {
+        if (r > 0) {
+          keep[r - 1] = true;
+          mark(keep, minRow, maxRow, nanRow);
+        }
+        keep[r] = true;
+        Arrays.fill(minRow, -1);
+        Arrays.fill(maxRow, -1);
+        Arrays.fill(nanRow, -1);
+        bucket = b;
+      }
+      for (int c = 1; c < columns; c++) {
+        double v = data.getQuick(r, c);
+        if (Double.isNaN(v)) {
+          if (nanRow[c] < 0) {
+            nanRow[c] = r;
+          }
+        } else if (minRow[c] < 0) {
+          minRow[c] = r;
+          maxRow[c] = r;
+        } else if (v < data.getQuick(minRow[c], c)) {
+          minRow[c] = r;
+        } else if (v > data.getQuick(maxRow[c], c)) {
+          maxRow[c] = r;
+        }
+      }
+    }
+    keep[rows - 1] = true;
+    mark(keep, minRow, maxRow, nanRow);
+
+    int count = 0;
+    for (boolean k : keep) {
+      if (k) {
+        count++;
+      }
+    }
+    int[] selection = new int[count];
+    for (int r = 0, i = 0; r < rows; r++) {
+      if (keep[r]) {
+        selection[i++] = r;
+      }
+    }
+    return data.viewSelection(selection, null);
+  }
+
+  private static void mark(boolean[] keep, int[] minRow, int[] maxRow, int[] nanRow) {
+    for (int c = 1; c < minRow.length; c++) {
+      if (minRow[c] >= 0) {
+        keep[minRow[c]] = true;
+        keep[maxRow[c]] = true;
+      }
+      if (nanRow[c] >= 0) {
+        keep[nanRow[c]] = true;
+      }
+    }
+  }
+}
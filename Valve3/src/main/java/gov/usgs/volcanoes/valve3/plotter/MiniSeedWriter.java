@@ -0,0 +1,382 @@
+package gov.usgs.volcanoes.valve3.plotter;
+
+import gov.usgs.volcanoes.core.time.Time;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * Writes integer samples as miniSEED data records: a fixed header and Blockette 1000 followed by
+ * Steim1 or Steim2 compressed frames, big-endian. Samples are buffered per channel and written as
+ * soon as a record is full, so exports are encoded while they are streamed.
+ *
+ * <p>Channels are written one after the other. A new record is started at every gap in the
+ * sample times and at every NaN sample, so each record's start time is exact.
+ */
+public class MiniSeedWriter {
+  public static final int STEIM1 = 10;
+  public static final int STEIM2 = 11;
+  public static final int DEFAULT_RECORD_LENGTH = 4096;
+
+  private static final int DATA_OFFSET = 64;
+  private static final int FRAME_LENGTH = 64;
+  private static final int FRAME_WORDS = 16;
+  private static final int MAX_SEQUENCE = 999999;
+
+  /* Steim2 packings tried in order: samples per word, bits per sample, nibble, dnib */
+  private static final int[][] STEIM2_PACKINGS = {
+      {7, 4, 3, 2}, {6, 5, 3, 1}, {5, 6, 3, 0}, {4, 8, 1, -1}, {3, 10, 2, 3}, {2, 15, 2, 2},
+      {1, 30, 2, 1}
+  };
+
+  private final OutputStream out;
+  private final int encoding;
+  private final int recordLength;
+  private final int frames;
+  private final int maxSamples;
+  private final byte[] record;
+  private final ByteBuffer buf;
+  private final Calendar cal;
+  private int sequence;
+
+  // current channel
+  private byte[] codes;
+  private double rate;
+  private short rateFactor;
+  private short rateMultiplier;
+  private int previous;
+
+  // buffered samples of the current segment of contiguous samples
+  private final int[] samples;
+  private int count;
+  private boolean inSegment;
+  private double segmentStart;
+  private long segmentWritten;
+
+  /**
+   * Constructor.
+   *
+   * @param out          stream to write records to
+   * @param encoding     {@link #STEIM1} or {@link #STEIM2}
+   * @param recordLength record length in bytes, a power of 2 from 256 to 8192
+   */
+  public MiniSeedWriter(OutputStream out, int encoding, int recordLength) {
+    if (encoding != STEIM1 && encoding != STEIM2) {
+      throw new IllegalArgumentException("Unsupported encoding " + encoding);
+    }
+    if (!isValidRecordLength(recordLength)) {
+      throw new IllegalArgumentException("Invalid record length " + recordLength);
+    }
+    this.out = out;
+    this.encoding = encoding;
+    this.recordLength = recordLength;
+    frames = (recordLength - DATA_OFFSET) / FRAME_LENGTH;
+    maxSamples = (frames * (FRAME_WORDS - 1) - 2) * 7;
+    record = new byte[recordLength];
+    buf = ByteBuffer.wrap(record);
+    samples = new int[2 * maxSamples];
+    cal = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+  }
+
+  /**
+   * Check record length.
+   *
+   * @param length record length in bytes
+   * @return true if records of this length can be written
+   */
+  public static boolean isValidRecordLength(int length) {
+    return length >= 256 && length <= 8192 && Integer.bitCount(length) == 1;
+  }
+
+  /**
+   * Finish the current channel and start a new one.
+   *
+   * @param scnl         station, channel, network and optional location codes
+   * @param samplingRate samples per second
+   * @throws IOException if records can't be written
+   */
+  public void startChannel(String[] scnl, double samplingRate) throws IOException {
+    flush();
+    StringBuilder sb = new StringBuilder(12);
+    appendCode(sb, scnl, 0, 5);
+    appendCode(sb, scnl, 3, 2);
+    appendCode(sb, scnl, 1, 3);
+    appendCode(sb, scnl, 2, 2);
+    codes = sb.toString().getBytes("US-ASCII");
+    rate = samplingRate;
+    setRate(samplingRate);
+    previous = 0;
+  }
+
+  private static void appendCode(StringBuilder sb, String[] scnl, int index, int length) {
+    String code = (scnl == null || scnl.length <= index || scnl[index] == null
+                   || scnl[index].equals("--")) ? "" : scnl[index];
+    if (code.length() > length) {
+      code = code.substring(0, length);
+    }
+    sb.append(code);
+    for (int i = code.length(); i < length; i++) {
+      sb.append(' ');
+    }
+  }
+
+  /**
+   * Encode sampling rate as header factor and multiplier.
+   */
+  private void setRate(double samplingRate) {
+    rateFactor = 0;
+    rateMultiplier = 0;
+    if (!(samplingRate > 0)) {
+      return;
+    }
+    double period = 1 / samplingRate;
+    if (samplingRate >= 1 && samplingRate <= Short.MAX_VALUE
+        && Math.abs(samplingRate - Math.rint(samplingRate)) < 1e-9) {
+      rateFactor = (short) Math.rint(samplingRate);
+      rateMultiplier = 1;
+    } else if (samplingRate < 1 && period <= Short.MAX_VALUE
+        && Math.abs(period - Math.rint(period)) < 1e-9) {
+      rateFactor = (short) -Math.rint(period);
+      rateMultiplier = 1;
+    } else if (samplingRate <= Short.MAX_VALUE) {
+      int scale = 10000;
+      while (samplingRate * scale > Short.MAX_VALUE) {
+        scale /= 10;
+      }
+      rateFactor = (short) Math.round(samplingRate * scale);
+      rateMultiplier = (short) -scale;
+    }
+  }
+
+  /**
+   * Add sample to the current channel.
+   *
+   * @param time  sample time, j2ksec UTC
+   * @param value sample value, truncated to an integer; NaN marks missing data
+   * @throws IOException if records can't be written
+   */
+  public void add(double time, double value) throws IOException {
+    if (Double.isNaN(value)) {
+      flush();
+      return;
+    }
+    if (inSegment && rate > 0) {
+      double expected = segmentStart + (segmentWritten + count) / rate;
+      if (Math.abs(time - expected) > 0.5 / rate) {
+        flush();
+      }
+    }
+    if (!inSegment) {
+      inSegment = true;
+      segmentStart = time;
+      segmentWritten = 0;
+    }
+    samples[count++] = (int) value;
+    while (count == samples.length) {
+      writeRecord();
+    }
+  }
+
+  /**
+   * Write all buffered samples, ending the current segment.
+   *
+   * @throws IOException if records can't be written
+   */
+  public void flush() throws IOException {
+    while (count > 0) {
+      writeRecord();
+    }
+    inSegment = false;
+  }
+
+  /**
+   * Encode one record from the start of the buffer and remove its samples from the buffer.
+   */
+  private void writeRecord() throws IOException {
+    int n = count;
+    if (n > maxSamples) {
+      n = maxSamples;
+    }
+    Arrays.fill(record, (byte) 0);
+    int recordEncoding = encoding;
+    if (recordEncoding == STEIM2 && !fitsSteim2(n)) {
+      recordEncoding = STEIM1;
+    }
+    n = recordEncoding == STEIM2 ? packSteim2(n) : packSteim1(n);
+
+    double start = rate > 0 ? segmentStart + segmentWritten / rate : segmentStart;
+    writeHeader(start, n, recordEncoding);
+    out.write(record);
+
+    previous = samples[n - 1];
+    segmentWritten += n;
+    count -= n;
+    System.arraycopy(samples, n, samples, 0, count);
+  }
+
+  private void writeHeader(double start, int n, int recordEncoding) {
+    sequence = sequence == MAX_SEQUENCE ? 1 : sequence + 1;
+    buf.clear();
+    for (int i = 100000; i > 0; i /= 10) {
+      buf.put((byte) ('0' + (sequence / i) % 10));
+    }
+    buf.put((byte) 'D');
+    buf.put((byte) ' ');
+    buf.put(codes);
+
+    // record start time, rounded to the header's resolution of 0.1 ms
+    long tenths = Math.round(Time.j2kToEw(start) * 10000);
+    long seconds = tenths / 10000;
+    int fraction = (int) (tenths % 10000);
+    if (fraction < 0) {
+      seconds--;
+      fraction += 10000;
+    }
+    cal.setTimeInMillis(seconds * 1000);
+    buf.putShort((short) cal.get(Calendar.YEAR));
+    buf.putShort((short) cal.get(Calendar.DAY_OF_YEAR));
+    buf.put((byte) cal.get(Calendar.HOUR_OF_DAY));
+    buf.put((byte) cal.get(Calendar.MINUTE));
+    buf.put((byte) cal.get(Calendar.SECOND));
+    buf.put((byte) 0);
+    buf.putShort((short) fraction);
+
+    buf.putShort((short) n);
+    buf.putShort(rateFactor);
+    buf.putShort(rateMultiplier);
+    buf.put((byte) 0); // activity flags
+    buf.put((byte) 0); // I/O and clock flags
+    buf.put((byte) 0); // data quality flags
+    buf.put((byte) 1); // number of blockettes
+    buf.putInt(0); // time correction
+    buf.putShort((short) DATA_OFFSET);
+    buf.putShort((short) 48); // first blockette
+
+    // Blockette 1000
+    buf.putShort((short) 1000);
+    buf.putShort((short) 0); // no next blockette
+    buf.put((byte) recordEncoding);
+    buf.put((byte) 1); // big-endian
+    buf.put((byte) Integer.numberOfTrailingZeros(recordLength));
+    buf.put((byte) 0);
+  }
+
+  private int diff(int i) {
+    return samples[i] - (i == 0 ? previous : samples[i - 1]);
+  }
+
+  private static boolean fits(int value, int bits) {
+    int limit = 1 << (bits - 1);
+    return value >= -limit && value < limit;
+  }
+
+  /**
+   * Check that all differences of the next n samples fit into the 30 bits of Steim2.
+   */
+  private boolean fitsSteim2(int n) {
+    long prev = previous;
+    for (int i = 0; i < n; i++) {
+      long d = samples[i] - prev;
+      if (d < -(1L << 29) || d >= (1L << 29)) {
+        return false;
+      }
+      prev = samples[i];
+    }
+    return true;
+  }
+
+  /**
+   * Pack samples into the record's Steim1 frames.
+   *
+   * @param n number of samples available
+   * @return number of samples packed
+   */
+  private int packSteim1(int n) {
+    int i = 0;
+    for (int f = 0; f < frames && i < n; f++) {
+      int control = 0;
+      for (int w = f == 0 ? 3 : 1; w < FRAME_WORDS && i < n; w++) {
+        int word;
+        int nibble;
+        if (n - i >= 4 && fits(diff(i), 8) && fits(diff(i + 1), 8) && fits(diff(i + 2), 8)
+            && fits(diff(i + 3), 8)) {
+          word = (diff(i) & 0xff) << 24 | (diff(i + 1) & 0xff) << 16 | (diff(i + 2) & 0xff) << 8
+              | (diff(i + 3) & 0xff);
+          nibble = 1;
+          i += 4;
+        } else if (n - i >= 2 && fits(diff(i), 16) && fits(diff(i + 1), 16)) {
+          word = (diff(i) & 0xffff) << 16 | (diff(i + 1) & 0xffff);
+          nibble = 2;
+          i += 2;
+        } else {
+          word = diff(i);
+          nibble = 3;
+          i++;
+        }
+        control |= nibble << (30 - 2 * w);
+        putWord(f, w, word);
+      }
+      putWord(f, 0, control);
+    }
+    putIntegrationConstants(i);
+    return i;
+  }
+
+  /**
+   * Pack samples into the record's Steim2 frames. Differences must fit into 30 bits.
+   *
+   * @param n number of samples available
+   * @return number of samples packed
+   */
+  private int packSteim2(int n) {
+    int i = 0;
+    for (int f = 0; f < frames && i < n; f++) {
+      int control = 0;
+      for (int w = f == 0 ? 3 : 1; w < FRAME_WORDS && i < n; w++) {
+        for (int[] p : STEIM2_PACKINGS) {
+          int k = p[0];
+          int bits = p[1];
+          if (n - i < k) {
+            continue;
+          }
+          boolean ok = true;
+          for (int j = 0; j < k && ok; j++) {
+            ok = fits(diff(i + j), bits);
+          }
+          if (!ok) {
+            continue;
+          }
+          int word = 0;
+          int mask = (1 << bits) - 1;
+          for (int j = 0; j < k; j++) {
+            word |= (diff(i + j) & mask) << (bits * (k - 1 - j));
+          }
+          if (p[3] >= 0) {
+            word |= p[3] << 30;
+          }
+          control |= p[2] << (30 - 2 * w);
+          putWord(f, w, word);
+          i += k;
+          break;
+        }
+      }
+      putWord(f, 0, control);
+    }
+    putIntegrationConstants(i);
+    return i;
+  }
+
+  private void putIntegrationConstants(int n) {
+    putWord(0, 1, samples[0]);
+    putWord(0, 2, samples[n - 1]);
+  }
+
+  private void putWord(int frame, int word, int value) {
+    buf.putInt(DATA_OFFSET + frame * FRAME_LENGTH + word * 4, value);
+  }
+}
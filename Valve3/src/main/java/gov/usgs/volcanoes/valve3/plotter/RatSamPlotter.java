@@ -4,14 +4,14 @@ import gov.usgs.volcanoes.core.data.GenericDataMatrix;
 import gov.usgs.volcanoes.core.data.RSAMData;
 import gov.usgs.volcanoes.core.legacy.plot.PlotException;
 import gov.usgs.volcanoes.core.legacy.plot.render.MatrixRenderer;
-import gov.usgs.volcanoes.core.legacy.util.Pool;
 import gov.usgs.volcanoes.core.util.UtilException;
 import gov.usgs.volcanoes.valve3.PlotComponent;
 import gov.usgs.volcanoes.valve3.Plotter;
 import gov.usgs.volcanoes.valve3.Valve3;
 import gov.usgs.volcanoes.valve3.Valve3Exception;
+import gov.usgs.volcanoes.valve3.data.VDXClientLease;
+import gov.usgs.volcanoes.valve3.data.VDXClientPool;
 import gov.usgs.volcanoes.valve3.result.Valve3Plot;
-import gov.usgs.volcanoes.vdx.client.VDXClient;
 import gov.usgs.volcanoes.vdx.data.Channel;
 import gov.usgs.volcanoes.vdx.data.ExportData;
 import gov.usgs.volcanoes.vdx.data.MatrixExporter;
@@ -45,7 +45,7 @@ public class RatSamPlotter extends RawDataPlotter {
   }
 
   private PlotType plotType;
-  private static Map<Integer, Channel> channelsMap;
+  private Map<Integer, Channel> channelsMap;
   RSAMData data;
 
   /**
@@ -95,6 +95,14 @@ public class RatSamPlotter extends RawDataPlotter {
     }
   }
 
+  /**
+   * Event counts are computed from the samples.
+   */
+  @Override
+  protected boolean isComputedFromSamples() {
+    return plotType == PlotType.COUNTS || super.isComputedFromSamples();
+  }
+
   /**
    * Gets binary data from VDX.
    *
@@ -105,7 +113,6 @@ public class RatSamPlotter extends RawDataPlotter {
     // initialize variables
     boolean exceptionThrown = false;
     String exceptionMsg = "";
-    VDXClient client = null;
 
     // create a map of all the input parameters
     Map<String, String> params = new LinkedHashMap<String, String>();
@@ -118,27 +125,25 @@ public class RatSamPlotter extends RawDataPlotter {
     addDownsamplingInfo(params);
 
     // checkout a connection to the database
-    Pool<VDXClient> pool = null;
+    VDXClientPool pool = null;
     pool = Valve3.getInstance().getDataHandler().getVDXClient(vdxClient);
     if (pool != null) {
-      client = pool.checkout();
-      try {
-        data = (RSAMData) client.getBinaryData(params);
-      } catch (UtilException e) {
-        exceptionThrown = true;
-        exceptionMsg = e.getMessage();
-      } catch (Exception e) {
-        exceptionThrown = true;
-        exceptionMsg = e.getMessage();
-      }
+      try (VDXClientLease lease = pool.lease()) {
+        try {
+          data = (RSAMData) getBinaryData(lease, params);
+        } catch (UtilException e) {
+          exceptionThrown = true;
+          exceptionMsg = e.getMessage();
+        } catch (Exception e) {
+          exceptionThrown = true;
+          exceptionMsg = e.getMessage();
+        }
 
-      // if data was collected
-      if (data != null && data.rows() > 0) {
-        data.adjustTime(timeOffset);
+        // if data was collected
+        if (data != null && data.rows() > 0) {
+          data.adjustTime(timeOffset);
+        }
       }
-
-      // check back in our connection to the database
-      pool.checkin(client);
     }
 
     // if a data limit message exists, then throw exception
@@ -232,6 +237,15 @@ public class RatSamPlotter extends RawDataPlotter {
     }
   }
 
+  /**
+   * Request metadata for this plotter from vdx server.
+   *
+   * @see RawDataPlotter#getMetadata
+   */
+  protected void getMetadata() throws Valve3Exception {
+    channelsMap = getChannels(vdxSource, vdxClient);
+  }
+
   /**
    * Concrete realization of abstract method. Generate PNG images for values or event count
    * histograms (depends from plot type) to file with random name.
@@ -243,9 +257,7 @@ public class RatSamPlotter extends RawDataPlotter {
   public void plot(Valve3Plot v3p, PlotComponent comp) throws Valve3Exception, PlotException {
 
     forExport = (v3p == null);
-    channelsMap = getChannels(vdxSource, vdxClient);
-    comp.setPlotter(this.getClass().getName());
-    getInputs(comp);
+    prepare(comp);
 
     // plot configuration
     if (!forExport) {
@@ -253,7 +265,7 @@ public class RatSamPlotter extends RawDataPlotter {
     }
 
     // this is a legitimate request so lookup the data from the database and plot it
-    getData(comp);
+    fetchData(comp);
     plotData(v3p, comp);
 
     if (!forExport) {
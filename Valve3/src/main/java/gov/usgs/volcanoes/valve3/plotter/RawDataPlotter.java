@@ -1,6 +1,11 @@
 package gov.usgs.volcanoes.valve3.plotter;
 
+import cern.colt.matrix.DoubleFactory2D;
+import cern.colt.matrix.DoubleMatrix2D;
+
+import gov.usgs.volcanoes.core.configfile.ConfigFile;
 import gov.usgs.volcanoes.core.data.GenericDataMatrix;
+import gov.usgs.volcanoes.core.data.Wave;
 import gov.usgs.volcanoes.core.legacy.plot.PlotException;
 import gov.usgs.volcanoes.core.legacy.plot.decorate.DefaultFrameDecorator;
 import gov.usgs.volcanoes.core.legacy.plot.decorate.DefaultFrameDecorator.Location;
@@ -8,18 +13,20 @@ import gov.usgs.volcanoes.core.legacy.plot.decorate.SmartTick;
 import gov.usgs.volcanoes.core.legacy.plot.render.AxisRenderer;
 import gov.usgs.volcanoes.core.legacy.plot.render.LegendRenderer;
 import gov.usgs.volcanoes.core.legacy.plot.render.MatrixRenderer;
-import gov.usgs.volcanoes.core.legacy.util.Pool;
 import gov.usgs.volcanoes.core.math.DownsamplingType;
 import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.time.Time;
 import gov.usgs.volcanoes.core.util.StringUtils;
+import gov.usgs.volcanoes.core.util.UtilException;
 import gov.usgs.volcanoes.valve3.PlotComponent;
 import gov.usgs.volcanoes.valve3.Plotter;
 import gov.usgs.volcanoes.valve3.Valve3;
 import gov.usgs.volcanoes.valve3.Valve3Exception;
+import gov.usgs.volcanoes.valve3.data.DataHandler;
+import gov.usgs.volcanoes.valve3.data.VDXClientLease;
+import gov.usgs.volcanoes.valve3.data.VDXClientPool;
 import gov.usgs.volcanoes.valve3.result.Valve3Plot;
 import gov.usgs.volcanoes.vdx.ExportConfig;
-import gov.usgs.volcanoes.vdx.client.VDXClient;
 import gov.usgs.volcanoes.vdx.data.Channel;
 import gov.usgs.volcanoes.vdx.data.Column;
 import gov.usgs.volcanoes.vdx.data.ExportData;
@@ -29,16 +36,21 @@ import gov.usgs.volcanoes.vdx.data.SuppDatum;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
 
-import java.util.Calendar;
-import java.util.Date;
-import java.util.GregorianCalendar;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TimeZone;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Abstract class which keeps general functionality for all plotters based on MatrixRenderer.
@@ -67,6 +79,7 @@ public abstract class RawDataPlotter extends Plotter {
 
   protected int downsamplingInterval = 0;
   protected DownsamplingType downsamplingType = DownsamplingType.NONE;
+  protected int plotWidth;
 
   //count of left ticks
   protected int leftTicks = 0;
@@ -87,11 +100,17 @@ public abstract class RawDataPlotter extends Plotter {
   protected Map<Integer, Rank> ranksMap;
 
   protected TreeSet<ExportData> csvData;
-  protected StringBuilder csvText;
+  protected PrintWriter csvText;
   protected Map<String, String> csvCmtBits;
   protected Vector<String[]> csvHdrs;
   protected int csvIndex = 0;
 
+  private static final String NEWLINE = System.lineSeparator();
+  private final FixedPointFormat csvEpochFmt = new FixedPointFormat(14, 3);
+  private final FixedPointFormat jxEpochFmt = new FixedPointFormat(1, 3);
+  private final StringBuilder exportLine = new StringBuilder(256);
+  private char[] exportChars = new char[256];
+
   protected boolean[] bypassCols;
   protected boolean[] accumulateCols;
   protected boolean doDespike;
@@ -110,13 +129,28 @@ public abstract class RawDataPlotter extends Plotter {
 
   protected String outputType;
   protected boolean inclTime;
-  protected String[] scnl;
+  protected Map<Integer, String[]> scnls;
+  protected Map<Integer, Double> samplingRates;
   protected double samplingRate = 0.0;
   protected String dataType = null;
 
   protected double timeOffset;
   protected String timeZoneID;
 
+  // shortest interval in seconds vdx is asked to average over automatically
+  private static final int MIN_AUTO_INTERVAL = 2;
+
+  // rows per pixel column asked for automatically, enough for MatrixEnvelope to keep the
+  // extremes among them
+  private static final int AUTO_ROWS_PER_COLUMN = 8;
+
+  // upper limit of time chunks a request is split into, and shortest chunk in seconds
+  private static final int MAX_CHUNKS = 100;
+  private static final double MIN_CHUNK = 60;
+
+  // data was already requested by prefetch(), plot() only has to render it
+  private boolean prefetched = false;
+
   /**
    * Default constructor.
    */
@@ -237,6 +271,7 @@ public abstract class RawDataPlotter extends Plotter {
     } catch (Valve3Exception e) {
       //Do nothing, default values without downsampling
     }
+    plotWidth = comp.getBoxWidth();
 
     // plot related parameters
     if (!forExport) {
@@ -300,15 +335,49 @@ public abstract class RawDataPlotter extends Plotter {
 
   /**
    * Used during request of data for this plotter, adds downsampling information to request's
-   * parameters.
+   * parameters. If no downsampling was requested for a plot and "vdxDownsampling" (plotter
+   * configuration of the data source, or data.config) is "auto", vdx is asked for means over
+   * intervals of an eighth of a pixel column. Exports and plots whose values are computed from
+   * the samples are never downsampled automatically.
    *
    * @param params parameters to add to
    */
   protected void addDownsamplingInfo(Map<String, String> params) {
-    params.put("ds", downsamplingType.toString());
-    params.put("dsInt", Integer.toString(downsamplingInterval));
+    DownsamplingType type = downsamplingType;
+    int interval = downsamplingInterval;
+    if (type == DownsamplingType.NONE && !forExport && plotWidth > 0
+        && "auto".equals(getSetting("vdxDownsampling")) && !isComputedFromSamples()) {
+      int autoInterval = (int) ((endTime - startTime) / (plotWidth * AUTO_ROWS_PER_COLUMN));
+      if (autoInterval >= MIN_AUTO_INTERVAL) {
+        type = DownsamplingType.MEAN;
+        interval = autoInterval;
+      }
+    }
+    params.put("ds", type.toString());
+    params.put("dsInt", Integer.toString(interval));
+  }
+
+  /**
+   * Check if plotted values are computed from the samples (filters, accumulation and the like)
+   * rather than drawn from them, so means of the samples would change them.
+   *
+   * @return true if samples feed a computation
+   */
+  protected boolean isComputedFromSamples() {
+    if (doDespike || doDetrend || filterPick != 0) {
+      return true;
+    }
+    if (accumulateCols != null && columnsList != null) {
+      for (int i = 0; i < accumulateCols.length && i < columnsList.size(); i++) {
+        if (accumulateCols[i] && columnsList.get(i).checked) {
+          return true;
+        }
+      }
+    }
+    return false;
   }
 
+
   /**
    * Initialize list of columns for given vdx source.
    *
@@ -322,24 +391,17 @@ public abstract class RawDataPlotter extends Plotter {
     // initialize variables
     List<String> stringList = null;
     List<Column> columnList = null;
-    Pool<VDXClient> pool = null;
-    VDXClient client = null;
-
-    // create a map of all the input parameters
-    Map<String, String> params = new LinkedHashMap<String, String>();
-    params.put("source", vdxSource);
-    params.put("action", "columns");
+    DataHandler dataHandler = Valve3.getInstance().getDataHandler();
+    VDXClientPool pool = dataHandler.getVDXClient(vdxClient);
 
-    // checkout a connection to the database
-    pool = Valve3.getInstance().getDataHandler().getVDXClient(vdxClient);
+    // metadata is requested from vdx server only if not cached
     if (pool != null) {
-      client = pool.checkout();
       try {
-        stringList = client.getTextData(params);
+        stringList = dataHandler.getMetadataCache().getTextData(pool, vdxSource, "columns");
+      } catch (Valve3Exception e) {
+        throw e;
       } catch (Exception e) {
         stringList = null;
-      } finally {
-        pool.checkin(client);
       }
 
       // if data was collected
@@ -364,24 +426,17 @@ public abstract class RawDataPlotter extends Plotter {
     // initialize variables
     List<String> stringList = null;
     Map<Integer, Channel> channelMap = null;
-    Pool<VDXClient> pool = null;
-    VDXClient client = null;
-
-    // create a map of all the input parameters
-    Map<String, String> params = new LinkedHashMap<String, String>();
-    params.put("source", vdxSource);
-    params.put("action", "channels");
+    DataHandler dataHandler = Valve3.getInstance().getDataHandler();
+    VDXClientPool pool = dataHandler.getVDXClient(vdxClient);
 
-    // checkout a connection to the database
-    pool = Valve3.getInstance().getDataHandler().getVDXClient(vdxClient);
+    // metadata is requested from vdx server only if not cached
     if (pool != null) {
-      client = pool.checkout();
       try {
-        stringList = client.getTextData(params);
+        stringList = dataHandler.getMetadataCache().getTextData(pool, vdxSource, "channels");
+      } catch (Valve3Exception e) {
+        throw e;
       } catch (Exception e) {
         stringList = null;
-      } finally {
-        pool.checkin(client);
       }
 
       // if data was collected
@@ -406,24 +461,17 @@ public abstract class RawDataPlotter extends Plotter {
     // initialize variables
     List<String> stringList = null;
     Map<Integer, Rank> rankMap = null;
-    Pool<VDXClient> pool = null;
-    VDXClient client = null;
+    DataHandler dataHandler = Valve3.getInstance().getDataHandler();
+    VDXClientPool pool = dataHandler.getVDXClient(vdxClient);
 
-    // create a map of all the input parameters
-    Map<String, String> params = new LinkedHashMap<String, String>();
-    params.put("source", vdxSource);
-    params.put("action", "ranks");
-
-    // checkout a connection to the database
-    pool = Valve3.getInstance().getDataHandler().getVDXClient(vdxClient);
+    // metadata is requested from vdx server only if not cached
     if (pool != null) {
-      client = pool.checkout();
       try {
-        stringList = client.getTextData(params);
+        stringList = dataHandler.getMetadataCache().getTextData(pool, vdxSource, "ranks");
+      } catch (Valve3Exception e) {
+        throw e;
       } catch (Exception e) {
         stringList = null;
-      } finally {
-        pool.checkin(client);
       }
 
       // if data was collected
@@ -448,24 +496,17 @@ public abstract class RawDataPlotter extends Plotter {
     // initialize variables
     List<String> stringList = null;
     Map<Integer, Double> azimuthMap = null;
-    Pool<VDXClient> pool = null;
-    VDXClient client = null;
-
-    // create a map of all the input parameters
-    Map<String, String> params = new LinkedHashMap<String, String>();
-    params.put("source", vdxSource);
-    params.put("action", "azimuths");
+    DataHandler dataHandler = Valve3.getInstance().getDataHandler();
+    VDXClientPool pool = dataHandler.getVDXClient(vdxClient);
 
-    // checkout a connection to the database
-    pool = Valve3.getInstance().getDataHandler().getVDXClient(vdxClient);
+    // metadata is requested from vdx server only if not cached
     if (pool != null) {
-      client = pool.checkout();
       try {
-        stringList = client.getTextData(params);
+        stringList = dataHandler.getMetadataCache().getTextData(pool, vdxSource, "azimuths");
+      } catch (Valve3Exception e) {
+        throw e;
       } catch (Exception e) {
         stringList = null;
-      } finally {
-        pool.checkin(client);
       }
 
       // if data was collected
@@ -481,6 +522,23 @@ public abstract class RawDataPlotter extends Plotter {
     return azimuthMap;
   }
 
+  /**
+   * Yield the rows of a data matrix to draw. Line plots are reduced to their envelope at plot
+   * resolution unless "plotDownsampling" (plotter configuration of the data source, or
+   * data.config) is "none".
+   *
+   * @param gdm  data matrix
+   * @param comp plot component
+   * @return data to render
+   */
+  protected DoubleMatrix2D getPlotData(GenericDataMatrix gdm, PlotComponent comp) {
+    if (forExport || !"l".equals(shape) || "none".equals(getSetting("plotDownsampling"))) {
+      return gdm.getData();
+    }
+    return MatrixEnvelope.envelope(gdm.getData(), startTime + timeOffset, endTime + timeOffset,
+                                   comp.getBoxWidth());
+  }
+
   /**
    * Initialize MatrixRenderer for left plot axis.
    *
@@ -497,7 +555,7 @@ public abstract class RawDataPlotter extends Plotter {
       int currentComp, int compBoxHeight, int index, String unit) throws Valve3Exception {
 
     // setup the matrix renderer with this data
-    MatrixRenderer mr = new MatrixRenderer(gdm.getData(), ranks);
+    MatrixRenderer mr = new MatrixRenderer(getPlotData(gdm, comp), ranks);
     mr.setLocation(comp.getBoxX(), comp.getBoxY() + (currentComp - 1) * compBoxHeight,
         comp.getBoxWidth(), compBoxHeight - 16);
     mr.setAllVisible(false);
@@ -570,7 +628,7 @@ public abstract class RawDataPlotter extends Plotter {
     if (rightUnit == null) {
       return null;
     }
-    MatrixRenderer mr = new MatrixRenderer(gdm.getData(), ranks);
+    MatrixRenderer mr = new MatrixRenderer(getPlotData(gdm, comp), ranks);
     mr.setLocation(comp.getBoxX(), comp.getBoxY() + (currentComp - 1) * compBoxHeight,
         comp.getBoxWidth(), compBoxHeight - 16);
     mr.setAllVisible(false);
@@ -600,6 +658,325 @@ public abstract class RawDataPlotter extends Plotter {
     return mr;
   }
 
+  /**
+   * Request binary data for each of the given channels. Long requests are split into time
+   * chunks of {@link #getFetchChunk()} seconds whose data is joined per channel. If a fetch
+   * executor is configured, channels and chunks are requested concurrently over as many pooled
+   * connections as the vdx has clients, otherwise one after another over a single connection.
+   *
+   * @param params   request parameters; "ch" is set for each channel
+   * @param channels channel ids
+   * @return data for each channel in request order, or null if vdx is unknown
+   * @throws Valve3Exception with the message of the first failed channel request
+   */
+  protected Object[] getBinaryData(final Map<String, String> params, final String[] channels)
+      throws Valve3Exception {
+    DataHandler dh = Valve3.getInstance().getDataHandler();
+    final VDXClientPool pool = dh.getVDXClient(vdxClient);
+    if (pool == null) {
+      return null;
+    }
+
+    // one request per channel and chunk, the chunks of a channel one after the other
+    double[] bounds = getChunkBounds(params);
+    int chunks = bounds == null ? 1 : bounds.length - 1;
+    final List<Map<String, String>> requests =
+        new ArrayList<Map<String, String>>(channels.length * chunks);
+    for (String channel : channels) {
+      for (int j = 0; j < chunks; j++) {
+        Map<String, String> request = new LinkedHashMap<String, String>(params);
+        request.put("ch", channel);
+        if (bounds != null) {
+          request.put("st", Double.toString(bounds[j]));
+          request.put("et", Double.toString(bounds[j + 1]));
+        }
+        requests.add(request);
+      }
+    }
+
+    final Object[] results = new Object[requests.size()];
+    final Exception[] errors = new Exception[requests.size()];
+    ExecutorService executor = dh.getFetchExecutor();
+    int tasks = Math.min(requests.size(), dh.getVDXClientCount(vdxClient));
+    if (executor == null || tasks <= 1) {
+      getBinaryData(pool, requests, results, errors, 0, 1);
+    } else {
+      // each task sends every n-th request on its own connection
+      List<Future<Void>> futures = new ArrayList<Future<Void>>(tasks);
+      for (int i = 0; i < tasks; i++) {
+        final int first = i;
+        final int step = tasks;
+        futures.add(executor.submit(new Callable<Void>() {
+          public Void call() {
+            getBinaryData(pool, requests, results, errors, first, step);
+            return null;
+          }
+        }));
+      }
+      try {
+        for (Future<Void> future : futures) {
+          future.get();
+        }
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        throw new Valve3Exception(cause.getMessage() != null ? cause.getMessage()
+                                                             : cause.toString());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new Valve3Exception("Interrupted while requesting data");
+      } finally {
+        for (Future<Void> future : futures) {
+          future.cancel(true);
+        }
+      }
+    }
+
+    for (Exception e : errors) {
+      if (e != null) {
+        throw new Valve3Exception(e.getMessage());
+      }
+    }
+    if (chunks == 1) {
+      return results;
+    }
+    Object[] joined = new Object[channels.length];
+    for (int i = 0; i < channels.length; i++) {
+      List<Object> parts = Arrays.asList(results).subList(i * chunks, (i + 1) * chunks);
+      for (Object part : parts) {
+        if (!isJoinable(part)) {
+          throw new Valve3Exception("Can't join chunks of " + part.getClass().getSimpleName());
+        }
+      }
+      joined[i] = joinChunks(parts);
+    }
+    return joined;
+  }
+
+  /**
+   * Send requests first, first + step, ... on a single connection. Stops at the first failed
+   * request.
+   */
+  private static void getBinaryData(VDXClientPool pool, List<Map<String, String>> requests,
+      Object[] results, Exception[] errors, int first, int step) {
+    try (VDXClientLease lease = pool.lease()) {
+      for (int i = first; i < requests.size(); i += step) {
+        try {
+          results[i] = lease.getBinaryData(requests.get(i));
+        } catch (Exception e) {
+          errors[i] = e;
+          break;
+        }
+      }
+    } catch (Valve3Exception e) {
+      errors[first] = e;
+    }
+  }
+
+  /**
+   * Request binary data of one channel on a leased connection, split into time chunks of
+   * {@link #getFetchChunk()} seconds like {@link #getBinaryData(Map, String[])}. Data types which
+   * can't be joined are requested again as a whole.
+   *
+   * @param lease  leased vdx connection
+   * @param params request parameters
+   * @return data
+   * @throws UtilException if a request fails
+   */
+  protected Object getBinaryData(VDXClientLease lease, Map<String, String> params)
+      throws UtilException {
+    double[] bounds = getChunkBounds(params);
+    if (bounds == null) {
+      return lease.getBinaryData(params);
+    }
+    Map<String, String> request = new LinkedHashMap<String, String>(params);
+    List<Object> parts = new ArrayList<Object>(bounds.length - 1);
+    for (int j = 0; j < bounds.length - 1; j++) {
+      request.put("st", Double.toString(bounds[j]));
+      request.put("et", Double.toString(bounds[j + 1]));
+      Object part = lease.getBinaryData(request);
+      if (!isJoinable(part)) {
+        logger.debug("Can't join chunks of {}", part.getClass().getSimpleName());
+        return lease.getBinaryData(params);
+      }
+      parts.add(part);
+    }
+    return joinChunks(parts);
+  }
+
+  /**
+   * Yield length of the time chunks long data requests are split into: "fetchChunk" of the data
+   * source's plotter configuration, or global "fetchChunk" from data.config.
+   *
+   * @return chunk length in seconds, 0 if requests aren't split
+   */
+  protected double getFetchChunk() {
+    return StringUtils.stringToDouble(getSetting("fetchChunk"), 0);
+  }
+
+  /**
+   * Yield setting from the plotter configuration of the data source, or from data.config if
+   * not set for the data source.
+   *
+   * @param key setting name
+   * @return value, null if not set
+   */
+  protected String getSetting(String key) {
+    String value = plotterConfig == null ? null : plotterConfig.getString(key);
+    if (value == null) {
+      value = Valve3.getInstance().getDataHandler().getConfig().getString(key);
+    }
+    return value;
+  }
+
+  /**
+   * Split the time span of a request into chunks.
+   *
+   * @param params request parameters with "st" and "et"
+   * @return chunk boundaries from st to et, or null if the request isn't split
+   */
+  private double[] getChunkBounds(Map<String, String> params) {
+    double chunk = getFetchChunk();
+    if (chunk <= 0 || params.get("st") == null || params.get("et") == null) {
+      return null;
+    }
+    chunk = Math.max(chunk, MIN_CHUNK);
+    double st = Double.parseDouble(params.get("st"));
+    double et = Double.parseDouble(params.get("et"));
+    int n = (int) Math.min(Math.ceil((et - st) / chunk), MAX_CHUNKS);
+    if (n <= 1) {
+      return null;
+    }
+    double[] bounds = new double[n + 1];
+    for (int j = 0; j < n; j++) {
+      bounds[j] = st + (et - st) * j / n;
+    }
+    bounds[n] = et;
+    return bounds;
+  }
+
+  private static boolean isJoinable(Object part) {
+    return part == null || part instanceof Wave || part instanceof GenericDataMatrix;
+  }
+
+  /**
+   * Join data of consecutive time chunks. Waves are joined into one wave; matrix rows are
+   * appended in order, leaving out rows repeated at the chunk boundaries.
+   *
+   * @param parts data of each chunk in time order, waves or matrices; may contain nulls
+   * @return joined data, or null if all parts are null
+   */
+  protected Object joinChunks(List<Object> parts) {
+    List<Wave> waves = new ArrayList<Wave>(parts.size());
+    List<DoubleMatrix2D> rows = new ArrayList<DoubleMatrix2D>(parts.size());
+    GenericDataMatrix matrix = null;
+    Object first = null;
+    double end = Double.NEGATIVE_INFINITY;
+    int total = 0;
+    for (Object part : parts) {
+      if (part == null) {
+        continue;
+      }
+      if (first == null) {
+        first = part;
+      }
+      if (part instanceof Wave) {
+        waves.add((Wave) part);
+      } else {
+        GenericDataMatrix m = (GenericDataMatrix) part;
+        DoubleMatrix2D data = m.getData();
+        int skip = 0;
+        while (skip < m.rows() && data.getQuick(skip, 0) <= end) {
+          skip++;
+        }
+        if (skip == m.rows()) {
+          continue;
+        }
+        if (matrix == null) {
+          matrix = m;
+        }
+        rows.add(data.viewPart(skip, 0, m.rows() - skip, m.columns()));
+        total += m.rows() - skip;
+        end = data.getQuick(m.rows() - 1, 0);
+      }
+    }
+    if (waves.size() > 1) {
+      return Wave.join(waves);
+    }
+    if (rows.size() > 1) {
+      // copy all parts once into a matrix of the final size, keeping the first part's type
+      DoubleMatrix2D joined = DoubleFactory2D.dense.make(total, matrix.columns());
+      int r = 0;
+      for (DoubleMatrix2D part : rows) {
+        joined.viewPart(r, 0, part.rows(), part.columns()).assign(part);
+        r += part.rows();
+      }
+      matrix.setData(joined);
+    }
+    if (matrix != null) {
+      return matrix;
+    }
+    return first;
+  }
+
+  /**
+   * Request metadata (channels, ranks, columns, azimuths) the concrete plotter needs from vdx
+   * server. Does nothing by default.
+   *
+   * @throws Valve3Exception exception
+   */
+  protected void getMetadata() throws Valve3Exception {
+  }
+
+  /**
+   * Load metadata into the metadata cache.
+   *
+   * @throws Valve3Exception exception
+   */
+  public void loadMetadata() throws Valve3Exception {
+    getMetadata();
+  }
+
+  /**
+   * Load metadata and configure plotter according component parameters, unless already done by
+   * {@link #prefetch(PlotComponent)}.
+   *
+   * @param comp plot component
+   * @throws Valve3Exception exception
+   */
+  protected void prepare(PlotComponent comp) throws Valve3Exception {
+    if (prefetched) {
+      return;
+    }
+    getMetadata();
+    comp.setPlotter(this.getClass().getName());
+    getInputs(comp);
+  }
+
+  /**
+   * Request the data from vdx server, unless already done by {@link #prefetch(PlotComponent)}.
+   *
+   * @param comp plot component
+   * @throws Valve3Exception exception
+   */
+  protected void fetchData(PlotComponent comp) throws Valve3Exception {
+    if (!prefetched) {
+      getData(comp);
+    }
+  }
+
+  /**
+   * Load metadata, parse inputs and request the data for a plot, so that subsequent
+   * plot() call only renders.
+   *
+   * @see Plotter#prefetch
+   */
+  public void prefetch(PlotComponent comp) throws Valve3Exception {
+    forExport = false;
+    prepare(comp);
+    getData(comp);
+    prefetched = true;
+  }
+
   /**
    * This function should be overridden in each concrete plotter. Configure plotter according
    * component parameters.
@@ -632,19 +1009,14 @@ public abstract class RawDataPlotter extends Plotter {
    * @param decFmt how to format numbers
    * @param nullField what to use for missing fields
    */
-  private void addCSVline(Double[][] data, Double time, String decFmt, String nullField) {
-    StringBuilder line;
-    String firstDecFmt;
-    String nextDecFmt;
+  private void addCSVline(Double[][] data, double time, FixedPointFormat decFmt,
+      String nullField) {
+    StringBuilder line = exportLine;
+    line.setLength(0);
     if (inclTime) {
-      line = new StringBuilder(String.format("%14.3f,",
-                                            Time.j2kToEw(time)) + J2kSec.toDateString(time));
-      firstDecFmt = "," + decFmt;
-    } else {
-      line = new StringBuilder("");
-      firstDecFmt = decFmt;
+      csvEpochFmt.append(line, Time.j2kToEw(time)).append(',');
+      line.append(J2kSec.toDateString(time));
     }
-    nextDecFmt = "," + decFmt;
     for (Double[] group : data) {
       for (int i = 1; i < group.length; i++) {
         Double v = group[i];
@@ -654,15 +1026,18 @@ public abstract class RawDataPlotter extends Plotter {
           if (Double.isNaN(v) || v > 255) {
             line.append(", ");
           } else {
-            line.append(",").append(new Character((char) (v.intValue())));
+            line.append(',').append((char) (v.intValue()));
           }
         } else {
-          line.append(String.format(i == 1 ? firstDecFmt : nextDecFmt, v));
+          if (i != 1 || inclTime) {
+            line.append(',');
+          }
+          decFmt.append(line, v);
         }
       }
     }
-    csvText.append(line);
-    csvText.append("\n");
+    line.append('\n');
+    writeExportLine(line);
   }
 
   /**
@@ -676,22 +1051,23 @@ public abstract class RawDataPlotter extends Plotter {
    * @param timeZone name of time zone
    * @param rank Default rank
    */
-  private void addXMLline(Double[][] data, Double time, String decFmt, int pos, String timeZone,
-      String rank) {
+  private void addXMLline(Double[][] data, double time, FixedPointFormat decFmt, int pos,
+      String timeZone, String rank) {
     boolean hasChannels = (csvHdrs.get(1)[2] != null);  // Export has channel information
-    StringBuilder line;                    // Export line being added
+    StringBuilder line = exportLine;       // Export line being added
+    line.setLength(0);
 
     /* If first line, add header tag */
     if (pos == 1) {
-      line = new StringBuilder("\t<DATA>\n");
-    } else {
-      line = new StringBuilder("");
+      line.append("\t<DATA>\n");
     }
     /* Tag for a row of data */
-    line.append(String.format("\t\t<ROW pos=\"%d\">%n", pos));
+    line.append("\t\t<ROW pos=\"").append(pos).append("\">").append(NEWLINE);
     if (inclTime) {
-      line.append(String.format("\t\t\t<EPOCH>%1.3f</EPOCH>%n\t\t\t<TIMESTAMP>%s</TIMESTAMP>%n",
-                                Time.j2kToEw(time), J2kSec.toDateString(time)));
+      line.append("\t\t\t<EPOCH>");
+      jxEpochFmt.append(line, Time.j2kToEw(time)).append("</EPOCH>").append(NEWLINE);
+      line.append("\t\t\t<TIMESTAMP>").append(J2kSec.toDateString(time)).append("</TIMESTAMP>")
+          .append(NEWLINE);
       line.append("\t\t\t<TIMEZONE>").append(timeZone).append("</TIMEZONE>\n");
     }
     String channel = "";    // Channel name
@@ -733,10 +1109,10 @@ public abstract class RawDataPlotter extends Plotter {
             if (Double.isNaN(v) || v > 255) {
               ;
             } else {
-              line.append(new Character((char) (v.intValue())));
+              line.append((char) (v.intValue()));
             }
           } else {
-            line.append(String.format(decFmt, v));
+            decFmt.append(line, v);
           }
           line.append("</").append(tag).append(">\n");
         }
@@ -745,8 +1121,8 @@ public abstract class RawDataPlotter extends Plotter {
     if (hasChannels) {
       line.append("\t\t\t</CHANNEL>\n");
     }
-    csvText.append(line);
-    csvText.append("\t\t</ROW>\n");
+    line.append("\t\t</ROW>\n");
+    writeExportLine(line);
   }
 
   /**
@@ -760,21 +1136,23 @@ public abstract class RawDataPlotter extends Plotter {
    * @param timeZone name of time zone
    * @param rank Default rank
    */
-  private void addJsonLine(Double[][] data, Double time, String decFmt, int pos, String timeZone,
-      String rank) {
+  private void addJsonLine(Double[][] data, double time, FixedPointFormat decFmt, int pos,
+      String timeZone, String rank) {
     boolean hasChannels = (csvHdrs.get(1)[2] != null);  // Export has channel information
-    StringBuilder line;                    // Export line being added
+    StringBuilder line = exportLine;       // Export line being added
+    line.setLength(0);
 
     /* If first line, add header tag */
     if (pos == 1) {
-      line = new StringBuilder("\t\"data\":[\n");
+      line.append("\t\"data\":[\n");
     } else {
-      line = new StringBuilder(",\n");
+      line.append(",\n");
     }
     line.append("\t\t{");
     if (inclTime) {
-      line.append(String.format("\"EPOCH\":%1.3f,\"TIMESTAMP\":\"%s\",", Time.j2kToEw(time),
-                                J2kSec.toDateString(time)));
+      line.append("\"EPOCH\":");
+      jxEpochFmt.append(line, Time.j2kToEw(time)).append(",\"TIMESTAMP\":\"");
+      line.append(J2kSec.toDateString(time)).append("\",");
       line.append("\"TIMEZONE\":\"").append(timeZone).append("\"")
                                                      .append((hasChannels ? ",\n" : ""));
     }
@@ -813,63 +1191,65 @@ public abstract class RawDataPlotter extends Plotter {
 
         Double v = group[i];
         if (v != null) {
-          line.append(String.format(",%n\t\t\t\"%s\":", tag));
+          line.append(',').append(NEWLINE).append("\t\t\t\"").append(tag).append("\":");
           if (isCharColumn(i)) {
             if (Double.isNaN(v) || v > 255) {
               line.append("\"\"");
             } else {
-              line.append("\"").append(new Character((char) (v.intValue()))).append("\"");
+              line.append('"').append((char) (v.intValue())).append('"');
             }
           } else {
-            line.append(String.format(decFmt, v));
+            decFmt.append(line, v);
           }
         }
       }
       line.append("}");
     }
-    csvText.append(line);
     if (hasChannels) {
-      csvText.append("\n\t\t]}");
+      line.append("\n\t\t]}");
     }
+    writeExportLine(line);
   }
 
-  private int vaxOrder = 0;
-  //private int enc_fmt = 1; // 16-bit ints
-  private int encFmt = 3; // 32-bit ints
-  //private int enc_fmt = 5; // IEEE double
-  private int drlAdd = encFmt == 3 ? 2 : (encFmt == 1 ? 1 : 3);
+  /**
+   * Add time and data to the columnar binary export.
+   *
+   * @param bin columnar export writer
+   * @param data data for line
+   * @param time time for data
+   * @throws Valve3Exception if the export can't be written
+   */
+  private void addBinLine(ColumnarWriter bin, Double[][] data, double time)
+      throws Valve3Exception {
+    try {
+      bin.addRow(time, data);
+      countRow();
+    } catch (IOException e) {
+      throw new Valve3Exception("Error writing binary export: " + e.getMessage());
+    }
+  }
 
-  private void writeShort(OutputStream out, int val) throws IOException {
-    out.write(val % 256);
-    out.write(val / 256);
+  /**
+   * Write assembled export line to csvText without copying it into a String.
+   *
+   * @param line export line
+   */
+  private void writeExportLine(StringBuilder line) {
+    int len = line.length();
+    if (exportChars.length < len) {
+      exportChars = new char[Math.max(len, exportChars.length * 2)];
+    }
+    line.getChars(0, len, exportChars, 0);
+    csvText.write(exportChars, 0, len);
+    countRow();
   }
 
-  private void writeDouble(OutputStream out, double val) throws IOException {
-    int i;
-    if (encFmt == 5) {
-      long lval = Double.doubleToRawLongBits(val);
-      if (vaxOrder == 0) {
-        for (i = 0; i < 8; i++) {
-          out.write((int) ((lval >> (8 * i)) & 0x00ffL));
-        }
-      } else {
-        for (i = 7; i >= 0; i--) {
-          out.write((int) ((lval >> (8 * i)) & 0x00ffL));
-        }
-      }
-    } else {
-      Double valD = new Double(val);
-      int ival = (encFmt == 1 ? valD.shortValue() : valD.intValue());
-      int hi = (encFmt == 1 ? 2 : 4);
-      if (vaxOrder == 0) {
-        for (i = 0; i < hi; i++) {
-          out.write((ival >> (8 * i)) & 0x00ff);
-        }
-      } else {
-        for (i = hi - 1; i >= 0; i--) {
-          out.write((ival >> (8 * i)) & 0x00ff);
-        }
-      }
+  /**
+   * Count a written export row for progress reporting.
+   */
+  private void countRow() {
+    if (exportProgress != null) {
+      exportProgress.incrementAndGet();
     }
   }
 
@@ -878,11 +1258,28 @@ public abstract class RawDataPlotter extends Plotter {
    *
    * @param comp plot component
    * @param cmtBits comment info to add after configured comments
-   * @param seedOut stream to write seed data to
+   * @param binOut stream to write binary (miniseed or columnar) data to
    * @return export of binary data described by given PlotComponent
    */
-  public String toExport(PlotComponent comp, Map<String, String> cmtBits, OutputStream seedOut)
+  public String toExport(PlotComponent comp, Map<String, String> cmtBits, OutputStream binOut)
       throws Valve3Exception {
+    StringWriter out = new StringWriter();
+    writeExport(comp, cmtBits, binOut, out);
+    return out.toString();
+  }
+
+  /**
+   * Write contents in an export format. Rows are written as they are merged, so memory use
+   * doesn't grow with the size of the export.
+   *
+   * @param comp plot component
+   * @param cmtBits comment info to add after configured comments
+   * @param binOut stream to write binary (miniseed or columnar) data to
+   * @param out writer for text export
+   * @throws Valve3Exception if export isn't allowed or can't be written
+   */
+  public void writeExport(PlotComponent comp, Map<String, String> cmtBits, OutputStream binOut,
+      Writer out) throws Valve3Exception {
 
     // Get export configuration parameters
     ExportConfig ec = getExportConfig(vdxSource, vdxClient);
@@ -890,6 +1287,7 @@ public abstract class RawDataPlotter extends Plotter {
     boolean outToCsv = outputType.equals("csv");
     boolean outToXml = outputType.equals("xml");
     boolean outToJson = outputType.equals("json");
+    boolean outToBin = outputType.equals("bin");
     Vector<String> cmtLines = new Vector<String>();
     inclTime = outToCsv || outToXml || outToJson;
 
@@ -905,7 +1303,6 @@ public abstract class RawDataPlotter extends Plotter {
     }
 
     // Add the common column headers
-    String timeZone = comp.getTimeZone().getID();
     if (inclTime) {
       String[] h1 = {null, null, null, "Epoch"};
       String[] h2 = {null, null, null, "Date"};
@@ -915,6 +1312,8 @@ public abstract class RawDataPlotter extends Plotter {
 
     // Fill csvData with data to be exported; also completes csvText
     csvData = new TreeSet<ExportData>();
+    scnls = new LinkedHashMap<Integer, String[]>();
+    samplingRates = new LinkedHashMap<Integer, Double>();
     csvIndex = 0;
     try {
       plot(null, comp);
@@ -938,7 +1337,7 @@ public abstract class RawDataPlotter extends Plotter {
     if (csvCmtBits.containsKey("datatype")) {
       cmtLines.add("datatype=" + csvCmtBits.get("datatype"));
     }
-    csvText = new StringBuilder();
+    csvText = new PrintWriter(out);
 
     if (outToCsv) {
       for (String comment : comments) {
@@ -1003,120 +1402,59 @@ public abstract class RawDataPlotter extends Plotter {
 
     // currLine is an array of the current row of data from each source, indexed by that source's ID
     Double[][] currLine = new Double[csvData.size()][];
-    String decFmt = "%" + ec.getFixedWidth()[0] + "." + ec.getFixedWidth()[1] + "f";
-    String jxDecFmt = "%1." + ec.getFixedWidth()[1] + "f";
+    FixedPointFormat decFmt = new FixedPointFormat(ec.getFixedWidth());
+    FixedPointFormat jxDecFmt = new FixedPointFormat(1, ec.getFixedWidth()[1]);
     String nullField = String.format(",%" + ec.getFixedWidth()[0] + "s", "");
 
-    if (seedOut != null) {
+    ColumnarWriter bin = null;
+    if (outToBin) {
+      // We're writing data to a columnar binary file
+      if (binOut == null) {
+        throw new Valve3Exception("Binary export needs an output stream");
+      }
+      List<String> names = new ArrayList<String>();
+      for (String[] s : csvHdrs) {
+        names.add(s[2] != null ? s[2] + "_" + s[3] : s[3]);
+      }
+      csvHdrs = new Vector<String[]>();
+      List<String> binComments = new ArrayList<String>(Arrays.asList(comments));
+      binComments.addAll(cmtLines);
       try {
-        // We're writing data to a miniseed file
-        ExportData cd = csvData.first();
-
-        int sampleCount = cd.count();
-        int valsLeft = sampleCount; //samples
-        int valsInBlockette = 4096;
-        int drl = 12;
-        int blocketteCount = 0;
-        while (valsLeft > 0) {
-          while (valsLeft < valsInBlockette) {
-            drl--;
-            valsInBlockette /= 2;
-          }
-          valsLeft -= valsInBlockette;
-          blocketteCount++;
-        }
-        seedOut.write("000000".getBytes()); // seq nbr
-        seedOut.write("D".getBytes()); // QC
-        seedOut.write(32); //reserved
-
-        String scnlOut;
-        // These have to be extracted from source
-        if (scnl != null) {
-          scnlOut = String.format("%-5s  %-3s%-2s", scnl[0], scnl[1], scnl[2]);
-        } else {
-          scnlOut = "            ";
-        }
-        seedOut.write(scnlOut.getBytes());
-
-        // These get extracted from start time
-        Double[] datum = cd.currExportDatum();
-        Date jd = J2kSec.asDate(datum[0]);
-        Calendar cal = new GregorianCalendar();
-        cal.setTimeZone(TimeZone.getTimeZone(timeZone));
-        cal.setTime(jd);
-
-        writeShort(seedOut, cal.get(Calendar.YEAR)); // year
-        writeShort(seedOut, cal.get(Calendar.DAY_OF_YEAR)); // julian day
-        valsLeft = cal.get(Calendar.HOUR_OF_DAY);
-        seedOut.write(valsLeft); // hour
-        valsLeft = cal.get(Calendar.MINUTE);
-        seedOut.write(valsLeft); // minute
-        valsLeft = cal.get(Calendar.SECOND);
-        seedOut.write(valsLeft); // second
-        seedOut.write(0); // unused
-        valsLeft = cal.get(Calendar.MILLISECOND);
-        writeShort(seedOut, valsLeft); // fraction
-
-        // These get extracted from source
-        writeShort(seedOut, sampleCount); // # samples
-        valsLeft = (int) (Math.floor(samplingRate));
-        writeShort(seedOut, valsLeft); // sampling rate factor
-        writeShort(seedOut, 1); // sampling rate multiplier
-
-        seedOut.write(0); // accuracy? flag
-        seedOut.write(0); // IO clock? flag
-        seedOut.write(0); // data quality flag
-        seedOut.write(blocketteCount); // num blockettes
-        seedOut.write(0); // time correction
-        seedOut.write(0);
-        seedOut.write(0);
-        seedOut.write(0);
-        writeShort(seedOut, 48 + 8 * blocketteCount); // start of data
-        writeShort(seedOut, 48); // first blockette
-
-        int offset = 48;
-        drl = 12;
-        valsInBlockette = 4096;
-        valsLeft = sampleCount;
-        while (valsLeft > 0) {
-          while (valsLeft < valsInBlockette) {
-            drl--;
-            valsInBlockette /= 2;
-          }
-          valsLeft -= valsInBlockette;
-
-          // Write header for this blockette
-          // Blockette type 1000
-          writeShort(seedOut, 1000);
-          // Next/last blockette
-          offset += 8;
-          writeShort(seedOut, valsLeft > 0 ? offset : 0);
-
-          // Encoding format
-          seedOut.write(encFmt);
-          // VAX order?
-          seedOut.write(vaxOrder);
-          // Data Record Length
-          seedOut.write(drl + drlAdd);
-          // Reserved
-          seedOut.write(0);
+        bin = new ColumnarWriter(binOut, names, binComments, ColumnarWriter.DEFAULT_ROW_GROUP);
+      } catch (IOException e) {
+        throw new Valve3Exception("Error writing binary export: " + e.getMessage());
+      }
+    }
 
+    if (binOut != null && !outToBin) {
+      // We're writing data to a miniseed file, one channel after the other
+      ConfigFile config = Valve3.getInstance().getDataHandler().getConfig();
+      int encoding = "steim1".equalsIgnoreCase(config.getString("miniseed.encoding"))
+                     ? MiniSeedWriter.STEIM1 : MiniSeedWriter.STEIM2;
+      int recordLength = StringUtils.stringToInt(config.getString("miniseed.recordLength"),
+                                                 MiniSeedWriter.DEFAULT_RECORD_LENGTH);
+      if (!MiniSeedWriter.isValidRecordLength(recordLength)) {
+        throw new Valve3Exception("Invalid miniseed.recordLength " + recordLength);
+      }
+      MiniSeedWriter seed = new MiniSeedWriter(binOut, encoding, recordLength);
+      try {
+        ExportData[] sources = new ExportData[csvData.size()];
+        for (ExportData cd : csvData) {
+          sources[cd.exportDataId()] = cd;
         }
-        // And now, the actual data
-        double min = datum[1];
-        double max = datum[1];
-        valsLeft = sampleCount;
-        while (datum != null) {
-          valsLeft--;
-          if (min > datum[1]) {
-            min = datum[1];
+        for (ExportData cd : sources) {
+          // channels may differ in sampling rate
+          Double rate = samplingRates.get(cd.exportDataId());
+          seed.startChannel(scnls.get(cd.exportDataId()), rate == null ? samplingRate : rate);
+          Double[] datum = cd.currExportDatum();
+          while (datum != null) {
+            // export times are in the plot's time zone, miniseed record times are UTC
+            seed.add(datum[0] - timeOffset, datum[1] == null ? Double.NaN : datum[1]);
+            countRow();
+            datum = cd.nextExportDatum();
           }
-          if (max < datum[1]) {
-            max = datum[1];
-          }
-          writeDouble(seedOut, datum[1]);
-          datum = cd.nextExportDatum();
         }
+        seed.flush();
       } catch (IOException e) {
         throw new Valve3Exception("Error writing mseed file: " + e.getMessage());
       }
@@ -1131,6 +1469,13 @@ public abstract class RawDataPlotter extends Plotter {
           datum = cd.nextExportDatum();
         }
       }
+      if (bin != null) {
+        while (datum != null) {
+          currLine[0] = datum;
+          addBinLine(bin, currLine, datum[0]);
+          datum = cd.nextExportDatum();
+        }
+      }
       cd = csvData.first();
       datum = cd.currExportDatum();
       if (outToXml) {
@@ -1154,68 +1499,57 @@ public abstract class RawDataPlotter extends Plotter {
         }
       }
     } else {
-      // An array of our data sources, indexed by ID
-      ExportData[] sources = new ExportData[csvData.size()];
+      // The empty row of each source, indexed by ID
+      Double[][] dummies = new Double[currLine.length][];
       for (ExportData cd : csvData) {
-        sources[cd.exportDataId()] = cd;
-        currLine[cd.exportDataId()] = cd.dummyExportDatum();
+        dummies[cd.exportDataId()] = cd.dummyExportDatum();
+        currLine[cd.exportDataId()] = dummies[cd.exportDataId()];
       }
+      // IDs of the sources with data in the current line
+      int[] filled = new int[currLine.length];
+      int filledCount = 0;
 
-      // prevTime is the time of the last row formatted into csvText
-      Double prevTime = null;
+      ExportMerge merge = new ExportMerge(csvData);
+      if (merge.isEmpty()) {
+        throw new Valve3Exception("No data to export");
+      }
+      // prevTime is the time of the current line
+      double prevTime = merge.time();
       int pos = 0;
       while (true) {
-        ExportData loED;
-        try {
-          // Grab the ExportData whose next datum has the earliest time
-          loED = csvData.first();
-        } catch (Exception e) {
-          loED = null;
-        }
-
-        if (prevTime != null) {
-          int cmp = -1;
-          if (loED != null) {
-            Double[] l = loED.currExportDatum();
-            Double l0 = l[0];
-            cmp = prevTime.compareTo(l0);
+        boolean done = merge.isEmpty();
+        if (done || Double.compare(prevTime, merge.time()) < 0) {
+          pos++;
+          // Add the current line to csvText
+          if (outToCsv) {
+            addCSVline(currLine, prevTime, decFmt, nullField);
           }
-          if (cmp < 0) {
-            pos++;
-            // Add the current line to csvText
-            if (outToCsv) {
-              addCSVline(currLine, prevTime, decFmt, nullField);
-            }
-            if (outToXml) {
-              addXMLline(currLine, prevTime, decFmt, pos, rowTimeZone, rank);
-            }
-            if (outToJson) {
-              addJsonLine(currLine, prevTime, decFmt, pos, rowTimeZone, rank);
-            }
-            if (loED == null) {
-              // No new data; we're done!
-              break;
-            }
-            // "Erase" the current line
-            for (ExportData cd : sources) {
-              currLine[cd.exportDataId()] = cd.dummyExportDatum();
-            }
-            prevTime = loED.currExportDatum()[0];
+          if (outToXml) {
+            addXMLline(currLine, prevTime, decFmt, pos, rowTimeZone, rank);
           }
-        } else if (loED != null) {
-          // This is our first item
-          prevTime = loED.currExportDatum()[0];
-        } else {
-          throw new Valve3Exception("No data to export");
+          if (outToJson) {
+            addJsonLine(currLine, prevTime, decFmt, pos, rowTimeZone, rank);
+          }
+          if (bin != null) {
+            addBinLine(bin, currLine, prevTime);
+          }
+          if (done) {
+            break;
+          }
+          // "Erase" the current line
+          for (int i = 0; i < filledCount; i++) {
+            currLine[filled[i]] = dummies[filled[i]];
+          }
+          filledCount = 0;
+          prevTime = merge.time();
         }
         // Add current item to current line
-        currLine[loED.exportDataId()] = loED.currExportDatum();
-
-        // Remove & add our ExportData back so that it gets placed based on its new data
-        csvData.remove(loED);
-        if (loED.nextExportDatum() != null) {
-          csvData.add(loED);
+        int id = merge.source();
+        if (currLine[id] == dummies[id]) {
+          filled[filledCount++] = id;
         }
+        currLine[id] = merge.row();
+        merge.advance();
       }
     }
     if (outToXml) {
@@ -1224,9 +1558,19 @@ public abstract class RawDataPlotter extends Plotter {
     if (outToJson) {
       csvText.append("]}}\n");
     }
-    String result = csvText.toString();
+    if (bin != null) {
+      try {
+        bin.finish();
+      } catch (IOException e) {
+        throw new Valve3Exception("Error writing binary export: " + e.getMessage());
+      }
+    }
+    csvText.flush();
+    boolean error = csvText.checkError();
     csvText = null;
-    return result;
+    if (error) {
+      throw new Valve3Exception("Error writing export");
+    }
   }
 
   class AxisParameters {
@@ -1413,7 +1757,6 @@ public abstract class RawDataPlotter extends Plotter {
       throws Valve3Exception {
     // MetaData is associated with a channel, column, and rank combination.
     List<String> stringList = null;
-    VDXClient client = null;
 
     Map<String, String> params = new LinkedHashMap<String, String>();
     params.put("source", vdxSource);
@@ -1439,12 +1782,11 @@ public abstract class RawDataPlotter extends Plotter {
       }
     }
     params.put("col", cols);
-    Pool<VDXClient> pool = null;
+    VDXClientPool pool = null;
     pool = Valve3.getInstance().getDataHandler().getVDXClient(vdxClient);
     if (pool != null) {
-      client = pool.checkout();
-      try {
-        stringList = client.getTextData(params);
+      try (VDXClientLease lease = pool.lease()) {
+        stringList = lease.getTextData(params);
         for (String s : stringList) {
           System.out.println("metadatum: " + s);
           MetaDatum md = new MetaDatum(s);
@@ -1452,8 +1794,6 @@ public abstract class RawDataPlotter extends Plotter {
         }
       } catch (Exception e) {
         throw new Valve3Exception(e.getMessage());
-      } finally {
-        pool.checkin(client);
       }
     }
   }
@@ -1471,7 +1811,6 @@ public abstract class RawDataPlotter extends Plotter {
 
     // initialize variables
     List<String> stringList = null;
-    VDXClient client = null;
     String sdTypes;
 
     try {
@@ -1531,12 +1870,11 @@ public abstract class RawDataPlotter extends Plotter {
 
     // define the box height
     int compBoxHeight = comp.getBoxHeight();
-    Pool<VDXClient> pool = null;
+    VDXClientPool pool = null;
     pool = Valve3.getInstance().getDataHandler().getVDXClient(vdxClient);
     if (pool != null) {
-      client = pool.checkout();
-      try {
-        stringList = client.getTextData(params);
+      try (VDXClientLease lease = pool.lease()) {
+        stringList = lease.getTextData(params);
         for (String sd : stringList) {
           SuppDatum sdo = new SuppDatum(sd);
           int offset;
@@ -1552,8 +1890,6 @@ public abstract class RawDataPlotter extends Plotter {
         }
       } catch (Exception e) {
         throw new Valve3Exception(e.getMessage());
-      } finally {
-        pool.checkin(client);
       }
     }
   }
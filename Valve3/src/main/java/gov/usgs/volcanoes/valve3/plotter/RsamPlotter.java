@@ -14,19 +14,16 @@ import gov.usgs.volcanoes.core.legacy.plot.render.DataPointRenderer;
 import gov.usgs.volcanoes.core.legacy.plot.render.MatrixRenderer;
 import gov.usgs.volcanoes.core.legacy.plot.render.Renderer;
 import gov.usgs.volcanoes.core.legacy.plot.render.ShapeRenderer;
-import gov.usgs.volcanoes.core.legacy.util.Pool;
 import gov.usgs.volcanoes.core.math.BinSize;
 import gov.usgs.volcanoes.core.math.Butterworth;
 import gov.usgs.volcanoes.core.math.Butterworth.FilterType;
 import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.util.StringUtils;
-import gov.usgs.volcanoes.core.util.UtilException;
 import gov.usgs.volcanoes.valve3.PlotComponent;
 import gov.usgs.volcanoes.valve3.Plotter;
 import gov.usgs.volcanoes.valve3.Valve3;
 import gov.usgs.volcanoes.valve3.Valve3Exception;
 import gov.usgs.volcanoes.valve3.result.Valve3Plot;
-import gov.usgs.volcanoes.vdx.client.VDXClient;
 import gov.usgs.volcanoes.vdx.data.Channel;
 import gov.usgs.volcanoes.vdx.data.ExportData;
 import gov.usgs.volcanoes.vdx.data.HistogramExporter;
@@ -155,6 +152,14 @@ public class RsamPlotter extends RawDataPlotter {
     }
   }
 
+  /**
+   * Event counts are computed from the samples.
+   */
+  @Override
+  protected boolean isComputedFromSamples() {
+    return plotType == PlotType.COUNTS || super.isComputedFromSamples();
+  }
+
   /**
    * Gets binary data from VDX.
    *
@@ -163,9 +168,6 @@ public class RsamPlotter extends RawDataPlotter {
   protected void getData(PlotComponent comp) throws Valve3Exception {
 
     // initialize variables
-    boolean exceptionThrown = false;
-    String exceptionMsg = "";
-    VDXClient client = null;
     channelDataMap = new LinkedHashMap<Integer, RSAMData>();
     String[] channels = ch.split(",");
 
@@ -178,27 +180,14 @@ public class RsamPlotter extends RawDataPlotter {
     params.put("plotType", plotType.toString());
     addDownsamplingInfo(params);
 
-    // checkout a connection to the database
-    Pool<VDXClient> pool = null;
-    pool = Valve3.getInstance().getDataHandler().getVDXClient(vdxClient);
-    if (pool != null) {
-      client = pool.checkout();
+    // request the data for all selected channels
+    Object[] channelData = getBinaryData(params, channels);
+    if (channelData != null) {
 
       // iterate through each of the selected channels and place the data in the map
-      for (String channel : channels) {
-        params.put("ch", channel);
-        RSAMData data = null;
-        try {
-          data = (RSAMData) client.getBinaryData(params);
-        } catch (UtilException e) {
-          exceptionThrown = true;
-          exceptionMsg = e.getMessage();
-          break;
-        } catch (Exception e) {
-          exceptionThrown = true;
-          exceptionMsg = e.getMessage();
-          break;
-        }
+      for (int i = 0; i < channels.length; i++) {
+        String channel = channels[i];
+        RSAMData data = (RSAMData) channelData[i];
 
         // if data was collected
         if (data != null && data.rows() > 0) {
@@ -214,14 +203,6 @@ public class RsamPlotter extends RawDataPlotter {
 
         channelDataMap.put(Integer.valueOf(channel), data);
       }
-
-      // check back in our connection to the database
-      pool.checkin(client);
-    }
-
-    // if a data limit message exists, then throw exception
-    if (exceptionThrown) {
-      throw new Valve3Exception(exceptionMsg);
     }
   }
 
@@ -534,6 +515,15 @@ public class RsamPlotter extends RawDataPlotter {
     }
   }
 
+  /**
+   * Request metadata for this plotter from vdx server.
+   *
+   * @see RawDataPlotter#getMetadata
+   */
+  protected void getMetadata() throws Valve3Exception {
+    channelsMap = getChannels(vdxSource, vdxClient);
+  }
+
   /**
    * Concrete realization of abstract method. Generate PNG images for values or event count
    * histograms (depends from plot type) to file with random name. If v3p is null, prepare data for
@@ -546,9 +536,7 @@ public class RsamPlotter extends RawDataPlotter {
   public void plot(Valve3Plot v3p, PlotComponent comp) throws Valve3Exception, PlotException {
 
     forExport = (v3p == null);
-    channelsMap = getChannels(vdxSource, vdxClient);
-    comp.setPlotter(this.getClass().getName());
-    getInputs(comp);
+    prepare(comp);
 
     // plot configuration
     if (!forExport) {
@@ -556,7 +544,7 @@ public class RsamPlotter extends RawDataPlotter {
     }
 
     // this is a legitimate request so lookup the data from the database and plot it
-    getData(comp);
+    fetchData(comp);
     plotData(v3p, comp);
 
     if (!forExport) {
@@ -4,7 +4,6 @@ import gov.usgs.volcanoes.core.data.GenericDataMatrix;
 import gov.usgs.volcanoes.core.legacy.plot.Plot;
 import gov.usgs.volcanoes.core.legacy.plot.PlotException;
 import gov.usgs.volcanoes.core.legacy.plot.render.MatrixRenderer;
-import gov.usgs.volcanoes.core.legacy.util.Pool;
 import gov.usgs.volcanoes.core.math.Butterworth;
 import gov.usgs.volcanoes.core.math.Butterworth.FilterType;
 import gov.usgs.volcanoes.core.util.StringUtils;
@@ -13,8 +12,9 @@ import gov.usgs.volcanoes.valve3.PlotComponent;
 import gov.usgs.volcanoes.valve3.Plotter;
 import gov.usgs.volcanoes.valve3.Valve3;
 import gov.usgs.volcanoes.valve3.Valve3Exception;
+import gov.usgs.volcanoes.valve3.data.VDXClientLease;
+import gov.usgs.volcanoes.valve3.data.VDXClientPool;
 import gov.usgs.volcanoes.valve3.result.Valve3Plot;
-import gov.usgs.volcanoes.vdx.client.VDXClient;
 import gov.usgs.volcanoes.vdx.data.Channel;
 import gov.usgs.volcanoes.vdx.data.Column;
 import gov.usgs.volcanoes.vdx.data.ExportData;
@@ -47,7 +47,7 @@ public class TensorstrainPlotter extends RawDataPlotter {
   }
 
   private Map<Integer, TensorstrainData> channelDataMap;
-  private static Map<Integer, Double> azimuthsMap;
+  private Map<Integer, Double> azimuthsMap;
 
   private String[] legendsCols;
 
@@ -131,7 +131,6 @@ public class TensorstrainPlotter extends RawDataPlotter {
     // initialize variables
     boolean exceptionThrown = false;
     String exceptionMsg     = "";
-    VDXClient client        = null;
     channelDataMap          = new LinkedHashMap<Integer, TensorstrainData>();
     String[] channels       = ch.split(",");
 
@@ -145,36 +144,33 @@ public class TensorstrainPlotter extends RawDataPlotter {
     addDownsamplingInfo(params);
 
     // checkout a connection to the database
-    Pool<VDXClient> pool = null;
+    VDXClientPool pool = null;
     pool = Valve3.getInstance().getDataHandler().getVDXClient(vdxClient);
     if (pool != null) {
-      client = pool.checkout();
-
-      // iterate through each of the selected channels and get the data from the db
-      for (String channel : channels) {
-        params.put("ch", channel);
-        TensorstrainData data = null;
-        try {
-          data = (TensorstrainData) client.getBinaryData(params);
-        } catch (UtilException e) {
-          exceptionThrown = true;
-          exceptionMsg = e.getMessage();
-          break;
-        } catch (Exception e) {
-          exceptionThrown = true;
-          exceptionMsg = e.getMessage();
-          break;
-        }
+      try (VDXClientLease lease = pool.lease()) {
+        // iterate through each of the selected channels and get the data from the db
+        for (String channel : channels) {
+          params.put("ch", channel);
+          TensorstrainData data = null;
+          try {
+            data = (TensorstrainData) getBinaryData(lease, params);
+          } catch (UtilException e) {
+            exceptionThrown = true;
+            exceptionMsg = e.getMessage();
+            break;
+          } catch (Exception e) {
+            exceptionThrown = true;
+            exceptionMsg = e.getMessage();
+            break;
+          }
 
-        // if data was collected
-        if (data != null && data.rows() > 0) {
-          data.adjustTime(timeOffset);
+          // if data was collected
+          if (data != null && data.rows() > 0) {
+            data.adjustTime(timeOffset);
+          }
+          channelDataMap.put(Integer.valueOf(channel), data);
         }
-        channelDataMap.put(Integer.valueOf(channel), data);
       }
-
-      // check back in our connection to the database
-      pool.checkin(client);
     }
 
     // if a data limit message exists, then throw exception
@@ -400,6 +396,18 @@ public class TensorstrainPlotter extends RawDataPlotter {
     }
   }
 
+  /**
+   * Request metadata for this plotter from vdx server.
+   *
+   * @see RawDataPlotter#getMetadata
+   */
+  protected void getMetadata() throws Valve3Exception {
+    channelsMap = getChannels(vdxSource, vdxClient);
+    ranksMap = getRanks(vdxSource, vdxClient);
+    azimuthsMap = getAzimuths(vdxSource, vdxClient);
+    columnsList = getColumns(vdxSource, vdxClient);
+  }
+
   /**
    * Concrete realization of abstract method. Generate tilt PNG image to file with random name. If
    * v3p is null, prepare data for export -- assumes csvData, csvData & csvIndex initialized
@@ -408,13 +416,8 @@ public class TensorstrainPlotter extends RawDataPlotter {
    */
   public void plot(Valve3Plot v3p, PlotComponent comp) throws Valve3Exception, PlotException {
 
-    forExport   = (v3p == null);
-    channelsMap = getChannels(vdxSource, vdxClient);
-    ranksMap    = getRanks(vdxSource, vdxClient);
-    azimuthsMap = getAzimuths(vdxSource, vdxClient);
-    columnsList = getColumns(vdxSource, vdxClient);
-    comp.setPlotter(this.getClass().getName());
-    getInputs(comp);
+    forExport = (v3p == null);
+    prepare(comp);
 
     // get the rank object for this request
     Rank rank = new Rank();
@@ -430,7 +433,7 @@ public class TensorstrainPlotter extends RawDataPlotter {
     }
 
     // this is a legitimate request so lookup the data from the database and plot it
-    getData(comp);
+    fetchData(comp);
     plotData(v3p, comp, rank);
 
     if (!forExport) {
@@ -0,0 +1,82 @@
+package gov.usgs.volcanoes.valve3.plotter;
+
+import gov.usgs.volcanoes.core.data.Wave;
+
+/**
+ * Reduces a wave to its envelope at plot resolution. The samples of each pixel column are
+ * replaced by four: the first, the minimum and the maximum in their order of time, and the last.
+ * Drawn as a line, the envelope covers exactly the pixels the full wave covers, peaks included,
+ * while rendering cost depends on the plot width instead of the number of samples.
+ */
+public class WaveEnvelope {
+  /* samples kept per pixel column */
+  private static final int PER_COLUMN = 4;
+
+  /* waves with fewer samples per column than this are not worth reducing */
+  private static final double MIN_REDUCTION = 2 * PER_COLUMN;
+
+  private WaveEnvelope() {}
+
+  /**
+   * Yield envelope of a wave.
+   *
+   * @param wave    wave to reduce
+   * @param seconds time span of the plot
+   * @param width   width of the plot in pixels
+   * @return envelope, or the wave itself if it has few samples per pixel column
+   */
+  public static Wave envelope(Wave wave, double seconds, int width) {
+    int n = wave.numSamples();
+    double perColumn = seconds / width * wave.getSamplingRate();
+    if (n == 0 || width <= 0 || !(perColumn >= MIN_REDUCTION)) {
+      return wave;
+    }
+
+    int columns = (int) Math.ceil(n / perColumn);
+    int[] in = wave.buffer;
+    int[] out = new int[columns * PER_COLUMN];
+    int from = 0;
+    for (int c = 0; c < columns; c++) {
+      int to = (int) Math.min(n, Math.round((c + 1) * perColumn));
+      int first = Wave.NO_DATA;
+      int last = Wave.NO_DATA;
+      int minIndex = -1;
+      int maxIndex = -1;
+      for (int i = from; i < to; i++) {
+        int v = in[i];
+        if (v == Wave.NO_DATA) {
+          continue;
+        }
+        if (first == Wave.NO_DATA) {
+          first = v;
+          minIndex = i;
+          maxIndex = i;
+        } else if (v < in[minIndex]) {
+          minIndex = i;
+        } else if (v > in[maxIndex]) {
+          maxIndex = i;
+        }
+        last = v;
+      }
+      int o = c * PER_COLUMN;
+      out[o] = first;
+      if (minIndex < 0) {
+        out[o + 1] = Wave.NO_DATA;
+        out[o + 2] = Wave.NO_DATA;
+      } else if (minIndex <= maxIndex) {
+        out[o + 1] = in[minIndex];
+        out[o + 2] = in[maxIndex];
+      } else {
+        out[o + 1] = in[maxIndex];
+        out[o + 2] = in[minIndex];
+      }
+      out[o + 3] = last;
+      from = to;
+    }
+
+    Wave env = new Wave(out, wave.getStartTime(),
+                        wave.getSamplingRate() * PER_COLUMN / perColumn);
+    env.setDataType(wave.getDataType());
+    return env;
+  }
+}
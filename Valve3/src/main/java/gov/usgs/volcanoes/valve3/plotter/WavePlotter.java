@@ -6,23 +6,23 @@ import gov.usgs.volcanoes.core.legacy.plot.Plot;
 import gov.usgs.volcanoes.core.legacy.plot.PlotException;
 import gov.usgs.volcanoes.core.legacy.plot.render.wave.SpectraRenderer;
 import gov.usgs.volcanoes.core.legacy.plot.render.wave.SpectrogramRenderer;
-import gov.usgs.volcanoes.core.legacy.util.Pool;
 import gov.usgs.volcanoes.core.math.Butterworth;
 import gov.usgs.volcanoes.core.math.Butterworth.FilterType;
 import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.util.StringUtils;
-import gov.usgs.volcanoes.core.util.UtilException;
 import gov.usgs.volcanoes.valve3.PlotComponent;
 import gov.usgs.volcanoes.valve3.Plotter;
 import gov.usgs.volcanoes.valve3.Valve3;
 import gov.usgs.volcanoes.valve3.Valve3Exception;
+import gov.usgs.volcanoes.valve3.data.WavePyramid;
 import gov.usgs.volcanoes.valve3.result.Valve3Plot;
-import gov.usgs.volcanoes.vdx.client.VDXClient;
 import gov.usgs.volcanoes.vdx.data.Channel;
 import gov.usgs.volcanoes.vdx.data.ExportData;
 import gov.usgs.volcanoes.vdx.data.wave.SliceWaveExporter;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -64,6 +64,9 @@ public class WavePlotter extends RawDataPlotter {
 
   private static final double MAX_DATA_REQUEST = 86400;
 
+  /* spectrogram windows per pixel column beyond which overlap is reduced */
+  private static final int WINDOWS_PER_COLUMN = 2;
+
   /**
    * Default constructor.
    */
@@ -182,9 +185,6 @@ public class WavePlotter extends RawDataPlotter {
   protected void getData(PlotComponent comp) throws Valve3Exception {
 
     // initialize variables
-    boolean exceptionThrown = false;
-    String exceptionMsg = "";
-    VDXClient client = null;
     channelDataMap = new LinkedHashMap<Integer, SliceWave>();
     String[] channels = ch.split(",");
 
@@ -195,27 +195,22 @@ public class WavePlotter extends RawDataPlotter {
     params.put("st", Double.toString(startTime));
     params.put("et", Double.toString(endTime));
 
-    // checkout a connection to the database
-    Pool<VDXClient> pool = null;
-    pool = Valve3.getInstance().getDataHandler().getVDXClient(vdxClient);
-    if (pool != null) {
-      client = pool.checkout();
+    // unprocessed waveform plots are drawn from the min/max pyramid if it is fine enough
+    WavePyramid pyramid = Valve3.getInstance().getDataHandler().getWavePyramid();
+    if (pyramid != null && plotType == PlotType.WAVEFORM && !forExport && !doDespike
+        && !doDetrend && filterPick == 0 && debiasPick == 0
+        && getPyramidData(pyramid, params, channels, comp)) {
+      return;
+    }
+
+    // request the data for all selected channels
+    Object[] channelData = getBinaryData(params, channels);
+    if (channelData != null) {
 
       // iterate through each of the selected channels and place the data in the map
-      for (String channel : channels) {
-        params.put("ch", channel);
-        Wave data = null;
-        try {
-          data = (Wave) client.getBinaryData(params);
-        } catch (UtilException e) {
-          exceptionThrown = true;
-          exceptionMsg = e.getMessage();
-          break;
-        } catch (Exception e) {
-          exceptionThrown = true;
-          exceptionMsg = e.getMessage();
-          break;
-        }
+      for (int i = 0; i < channels.length; i++) {
+        String channel = channels[i];
+        Wave data = (Wave) channelData[i];
 
         // if data was collected
         if (data != null) {
@@ -296,20 +291,88 @@ public class WavePlotter extends RawDataPlotter {
             }
             data.subtract(bias);
           }
+          if (plotType == PlotType.WAVEFORM && !forExport) {
+            // exports keep all samples, the renderer only needs the envelope per pixel column
+            data = WaveEnvelope.envelope(data, endTime - startTime, comp.getBoxWidth());
+          }
           wave = new SliceWave(data);
           wave.setSlice(data.getStartTime(), data.getEndTime());
           channelDataMap.put(Integer.valueOf(channel), wave);
         }
       }
+    }
+  }
 
-      // check back in our connection to the database
-      pool.checkin(client);
+  /**
+   * Get waveform envelopes from the min/max pyramid. Only the spans of buckets missing in the
+   * pyramid are requested from VDX, each on its own, and the pyramid is filled with them.
+   *
+   * @param pyramid  min/max pyramid
+   * @param params   request parameters
+   * @param channels channel ids
+   * @param comp     PlotComponent
+   * @return false if the pyramid has no level fine enough for the plot
+   */
+  private boolean getPyramidData(WavePyramid pyramid, Map<String, String> params,
+      String[] channels, PlotComponent comp) throws Valve3Exception {
+    int bucket = pyramid.getBucket((endTime - startTime) / comp.getBoxWidth());
+    if (bucket == 0) {
+      return false;
+    }
+
+    // find the spans missing in each channel; channels missing the same span share a request
+    String[] keys = new String[channels.length];
+    Map<String, double[]> spans = new LinkedHashMap<String, double[]>();
+    Map<String, List<Integer>> spanChannels = new LinkedHashMap<String, List<Integer>>();
+    for (int i = 0; i < channels.length; i++) {
+      keys[i] = WavePyramid.key(vdxClient, vdxSource, channels[i]);
+      for (double[] span : pyramid.getMissing(keys[i], bucket, startTime, endTime)) {
+        String spanKey = span[0] + "-" + span[1];
+        if (!spans.containsKey(spanKey)) {
+          spans.put(spanKey, span);
+          spanChannels.put(spanKey, new ArrayList<Integer>());
+        }
+        spanChannels.get(spanKey).add(i);
+      }
+    }
+
+    List<List<Wave>> raw = new ArrayList<List<Wave>>(channels.length);
+    for (int i = 0; i < channels.length; i++) {
+      raw.add(new ArrayList<Wave>());
+    }
+    for (Map.Entry<String, double[]> me : spans.entrySet()) {
+      List<Integer> missing = spanChannels.get(me.getKey());
+      String[] fetch = new String[missing.size()];
+      for (int j = 0; j < fetch.length; j++) {
+        fetch[j] = channels[missing.get(j)];
+      }
+      params.put("st", Double.toString(me.getValue()[0]));
+      params.put("et", Double.toString(me.getValue()[1]));
+      Object[] channelData = getBinaryData(params, fetch);
+      if (channelData == null) {
+        continue;
+      }
+      for (int j = 0; j < fetch.length; j++) {
+        Wave data = (Wave) channelData[j];
+        if (data != null) {
+          data.handleBadData();
+          pyramid.add(keys[missing.get(j)], data);
+          raw.get(missing.get(j)).add(data);
+        }
+      }
     }
 
-    // if a data limit message exists, then throw exception
-    if (exceptionThrown) {
-      throw new Valve3Exception(exceptionMsg);
+    for (int i = 0; i < channels.length; i++) {
+      Wave data = pyramid.getEnvelope(keys[i], bucket, startTime, endTime, raw.get(i));
+      if (data != null) {
+        data.setStartTime(data.getStartTime() + timeOffset);
+        data = WaveEnvelope.envelope(data, endTime - startTime, comp.getBoxWidth());
+        SliceWave wave = new SliceWave(data);
+        wave.setSlice(data.getStartTime(), data.getEndTime());
+        channelDataMap.put(Integer.valueOf(channels[i]), wave);
+      }
     }
+    return true;
   }
 
   /**
@@ -413,7 +476,8 @@ public class WavePlotter extends RawDataPlotter {
     if (forExport) {
       String[] hdr = {null, null, channel.getCode().replace('$', '_').replace(',', '/'), "Count"};
       csvHdrs.add(hdr);
-      scnl = channel.getCode().split("[$]");
+      scnls.put(csvIndex, channel.getCode().split("[$]"));
+      samplingRates.put(csvIndex, wave.getSamplingRate());
       ExportData ed = new ExportData(csvIndex, wr);
       csvIndex++;
       csvData.add(ed);
@@ -523,7 +587,7 @@ public class WavePlotter extends RawDataPlotter {
     spectrogramRenderer.setMaxFreq(maxFreq);
     spectrogramRenderer.setNfft(nfft);
     spectrogramRenderer.setBinSize(binSize);
-    spectrogramRenderer.setOverlap(overlap);
+    spectrogramRenderer.setOverlap(getOverlap(wave, comp.getBoxWidth()));
     spectrogramRenderer.setMaxPower(maxPower);
     spectrogramRenderer.setMinPower(minPower);
 
@@ -549,6 +613,24 @@ public class WavePlotter extends RawDataPlotter {
     v3p.addComponent(comp);
   }
 
+  /**
+   * Yield overlap of spectrogram windows. The renderer computes an FFT per window, so windows
+   * aren't made to overlap more than needed for a couple of windows per pixel column, unless
+   * "spectrogramOverlap" (plotter configuration of the data source, or data.config) is "none".
+   *
+   * @param wave  wave to plot
+   * @param width width of the plot in pixels
+   * @return requested overlap, or less if that gives more windows than the plot can show
+   */
+  private double getOverlap(SliceWave wave, int width) {
+    if (width <= 0 || binSize <= 0 || "none".equals(getSetting("spectrogramOverlap"))) {
+      return overlap;
+    }
+    double windows = (double) width * WINDOWS_PER_COLUMN;
+    double maxOverlap = 1.0 - wave.samples() / (windows * binSize);
+    return Math.max(0.0, Math.min(overlap, maxOverlap));
+  }
+
   /**
    * If v3Plot is null, prepare data for exporting Otherwise, Loop through the list of channels and
    * create plots.
@@ -641,6 +723,15 @@ public class WavePlotter extends RawDataPlotter {
     }
   }
 
+  /**
+   * Request metadata for this plotter from vdx server.
+   *
+   * @see RawDataPlotter#getMetadata
+   */
+  protected void getMetadata() throws Valve3Exception {
+    channelsMap = getChannels(vdxSource, vdxClient);
+  }
+
   /**
    * Concrete realization of abstract method. Generate PNG image to file with random name. If v3p is
    * null, prepare data for export -- assumes csvData, csvData & csvIndex initialized.
@@ -652,9 +743,7 @@ public class WavePlotter extends RawDataPlotter {
   public void plot(Valve3Plot v3p, PlotComponent comp) throws Valve3Exception, PlotException {
 
     forExport = (v3p == null);
-    channelsMap = getChannels(vdxSource, vdxClient);
-    comp.setPlotter(this.getClass().getName());
-    getInputs(comp);
+    prepare(comp);
 
     // set the exportable based on the output and plot type
     switch (plotType) {
@@ -696,7 +785,7 @@ public class WavePlotter extends RawDataPlotter {
     }
 
     // this is a legitimate request so lookup the data from the database and plot it
-    getData(comp);
+    fetchData(comp);
     plotData(v3p, comp);
 
     if (!forExport) {
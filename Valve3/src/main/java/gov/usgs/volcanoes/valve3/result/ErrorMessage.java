@@ -17,6 +17,15 @@ public class ErrorMessage extends Result {
     message = m;
   }
 
+  /**
+   * Getter for error message.
+   *
+   * @return message
+   */
+  public String getMessage() {
+    return message;
+  }
+
   /**
    * Yield XML representation.
    *
@@ -0,0 +1,161 @@
+package gov.usgs.volcanoes.valve3.result;
+
+import gov.usgs.volcanoes.valve3.ExportJobHandler;
+import gov.usgs.volcanoes.valve3.ResultStore;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * State of an asynchronous raw data export: queued, running, done or failed. Keeps the number of
+ * rows written so far and, once the job is done, the exported {@link RawData}.
+ */
+public class ExportJob extends Result {
+  public enum State {
+    QUEUED, RUNNING, DONE, FAILED;
+
+    public String toString() {
+      return name().toLowerCase();
+    }
+  }
+
+  private final String id;
+  private final String user;
+  private final String[] sources;
+  private final ExportJobHandler handler;
+  private final AtomicLong rows;
+  private final long submitted;
+  private volatile State state;
+  private volatile long started;
+  private volatile long finished;
+  private volatile Result result;
+
+  /**
+   * Constructor.
+   *
+   * @param id      job id
+   * @param user    user who submitted the job
+   * @param sources data sources exported by the job
+   * @param handler handler managing the job
+   */
+  public ExportJob(String id, String user, String[] sources, ExportJobHandler handler) {
+    this.id = id;
+    this.user = user;
+    this.sources = sources;
+    this.handler = handler;
+    rows = new AtomicLong();
+    submitted = System.currentTimeMillis();
+    state = State.QUEUED;
+  }
+
+  /**
+   * Getter for job id.
+   *
+   * @return id
+   */
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * Getter for user who submitted the job.
+   *
+   * @return user name or remote address
+   */
+  public String getUser() {
+    return user;
+  }
+
+  /**
+   * Getter for exported data sources.
+   *
+   * @return data source names
+   */
+  public String[] getSources() {
+    return sources;
+  }
+
+  /**
+   * Getter for row counter, incremented by the plotter as export rows are written.
+   *
+   * @return counter of written rows
+   */
+  public AtomicLong getRows() {
+    return rows;
+  }
+
+  /**
+   * Getter for job state.
+   *
+   * @return state
+   */
+  public State getState() {
+    return state;
+  }
+
+  /**
+   * Getter for export result.
+   *
+   * @return RawData if job is done, ErrorMessage if it failed, null otherwise
+   */
+  public Result getResult() {
+    return result;
+  }
+
+  /**
+   * Mark job as running.
+   */
+  public void start() {
+    started = System.currentTimeMillis();
+    state = State.RUNNING;
+  }
+
+  /**
+   * Mark job as finished.
+   *
+   * @param r result of export, RawData or ErrorMessage
+   */
+  public void finish(Result r) {
+    result = r;
+    finished = System.currentTimeMillis();
+    state = r instanceof RawData ? State.DONE : State.FAILED;
+  }
+
+  /**
+   * Forget job once it expired.
+   */
+  public void delete() {
+    handler.remove(id);
+  }
+
+  /**
+   * Yield XML representation.
+   *
+   * @return xml representation of job state
+   */
+  public String toXml() {
+    Result r = result;
+    StringBuffer sb = new StringBuffer();
+    sb.append("\t<exportJob>\n");
+    sb.append("\t\t<id>" + id + "</id>\n");
+    sb.append("\t\t<state>" + state + "</state>\n");
+    sb.append("\t\t<rows>" + rows.get() + "</rows>\n");
+    long end = finished > 0 ? finished : System.currentTimeMillis();
+    if (started > 0) {
+      sb.append("\t\t<seconds>" + (end - started) / 1000 + "</seconds>\n");
+    } else {
+      sb.append("\t\t<waited>" + (end - submitted) / 1000 + "</waited>\n");
+    }
+    if (r instanceof RawData) {
+      RawData rd = (RawData) r;
+      sb.append("\t\t<url>" + rd.getUrl() + "</url>\n");
+      sb.append("\t\t<result>valve3.jsp?a=result&amp;id="
+                + ResultStore.getId(rd.getLocalFilename()) + "</result>\n");
+    } else if (r instanceof ErrorMessage) {
+      String message = String.valueOf(((ErrorMessage) r).getMessage());
+      sb.append("\t\t<message>" + message.replace("&", "&amp;").replace("<", "&lt;")
+                                          .replace(">", "&gt;") + "</message>\n");
+    }
+    sb.append("\t</exportJob>\n");
+    return toXml("exportJob", sb.toString());
+  }
+}
@@ -0,0 +1,52 @@
+package gov.usgs.volcanoes.valve3.result;
+
+/**
+ * Encoded plot image held in memory, delivered to the browser by the "img" action.
+ */
+public class PlotImage extends Result {
+  private final byte[] data;
+  private final String mimeType;
+
+  /**
+   * Constructor.
+   *
+   * @param data     encoded image
+   * @param mimeType mime type of encoded image
+   */
+  public PlotImage(byte[] data, String mimeType) {
+    this.data = data;
+    this.mimeType = mimeType;
+  }
+
+  /**
+   * Getter for encoded image.
+   *
+   * @return image bytes
+   */
+  public byte[] getData() {
+    return data;
+  }
+
+  /**
+   * Getter for mime type.
+   *
+   * @return mime type of encoded image
+   */
+  public String getMimeType() {
+    return mimeType;
+  }
+
+  /**
+   * Yield XML representation.
+   *
+   * @return xml representation of image
+   */
+  public String toXml() {
+    StringBuffer sb = new StringBuffer();
+    sb.append("\t<image>\n");
+    sb.append("\t\t<mimeType>" + mimeType + "</mimeType>\n");
+    sb.append("\t\t<size>" + data.length + "</size>\n");
+    sb.append("\t</image>\n");
+    return toXml("image", sb.toString());
+  }
+}
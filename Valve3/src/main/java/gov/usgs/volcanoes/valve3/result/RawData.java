@@ -1,5 +1,7 @@
 package gov.usgs.volcanoes.valve3.result;
 
+import gov.usgs.volcanoes.valve3.Valve3;
+
 import java.io.File;
 
 /**
@@ -10,6 +12,8 @@ import java.io.File;
 public class RawData extends Result {
   protected String url;
   protected String filename;
+  protected String downloadName;
+  protected boolean compressible;
 
   /**
    * Constructor.
@@ -18,8 +22,29 @@ public class RawData extends Result {
    * @param fn filename with raw data
    */
   public RawData(String u, String fn) {
+    this(u, fn, fn.substring(fn.lastIndexOf(File.separatorChar) + 1));
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param u    URL to result
+   * @param fn   filename with raw data
+   * @param name file name offered to the user for download
+   */
+  public RawData(String u, String fn, String name) {
     url = u;
     filename = fn;
+    downloadName = name;
+  }
+
+  /**
+   * Get URL.
+   *
+   * @return URL to raw data file
+   */
+  public String getUrl() {
+    return url;
   }
 
   /**
@@ -32,11 +57,47 @@ public class RawData extends Result {
     return filename;
   }
 
+  /**
+   * Yield file name offered for download.
+   *
+   * @return download file name
+   */
+  public String getDownloadName() {
+    return downloadName;
+  }
+
+  /**
+   * Check if the result file may be gzip encoded while it is delivered.
+   *
+   * @return true for uncompressed text
+   */
+  public boolean isCompressible() {
+    return compressible;
+  }
+
+  /**
+   * Setter for compressibility of the result file.
+   *
+   * @param c true if file may be gzip encoded while it is delivered
+   */
+  public void setCompressible(boolean c) {
+    compressible = c;
+  }
+
+  /**
+   * Yield size of raw data result file.
+   *
+   * @return size in bytes
+   */
+  public long getSize() {
+    return new File(getLocalFilename()).length();
+  }
+
   /**
    * Deletes raw data result file.
    */
   public void delete() {
-    if (new File(getLocalFilename()).delete()) {
+    if (Valve3.getInstance().getResultStore().delete(getLocalFilename())) {
       logger.info("Deleted {}", getLocalFilename());
     } else {
       logger.info("Couldn't delete {}", getLocalFilename());
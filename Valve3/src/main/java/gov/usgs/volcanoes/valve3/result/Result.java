@@ -29,6 +29,15 @@ public abstract class Result {
     url = u;
   }
 
+  /**
+   * Yield disk or memory space used by result.
+   *
+   * @return size in bytes
+   */
+  public long getSize() {
+    return 0;
+  }
+
   /**
    * Deletes generated result.
    */
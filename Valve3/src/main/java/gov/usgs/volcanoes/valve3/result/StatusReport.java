@@ -0,0 +1,49 @@
+package gov.usgs.volcanoes.valve3.result;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Result of an admin action, keeps named status lines.
+ */
+public class StatusReport extends Result {
+  private final Map<String, String> items;
+
+  /**
+   * Constructor.
+   */
+  public StatusReport() {
+    items = new LinkedHashMap<String, String>();
+  }
+
+  /**
+   * Add status line.
+   *
+   * @param name  name of reported item
+   * @param value status of item
+   */
+  public void add(String name, Object value) {
+    items.put(name, String.valueOf(value));
+  }
+
+  /**
+   * Yield XML representation.
+   *
+   * @return String with xml representation of status report
+   */
+  public String toXml() {
+    StringBuffer sb = new StringBuffer();
+    sb.append("\t<status>\n");
+    for (Map.Entry<String, String> me : items.entrySet()) {
+      sb.append("\t\t<item name=\"" + escape(me.getKey()) + "\">" + escape(me.getValue())
+                + "</item>\n");
+    }
+    sb.append("\t</status>\n");
+    return toXml("status", sb.toString());
+  }
+
+  private static String escape(String s) {
+    return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+            .replace("\"", "&quot;");
+  }
+}
@@ -1,8 +1,11 @@
 package gov.usgs.volcanoes.valve3.result;
 
 import gov.usgs.volcanoes.core.legacy.plot.Plot;
+import gov.usgs.volcanoes.core.legacy.plot.PlotException;
 import gov.usgs.volcanoes.core.util.StringUtils;
 import gov.usgs.volcanoes.valve3.CombinedPlot;
+import gov.usgs.volcanoes.valve3.ImageStore;
+import gov.usgs.volcanoes.valve3.PlotCache;
 import gov.usgs.volcanoes.valve3.PlotComponent;
 import gov.usgs.volcanoes.valve3.PlotHandler;
 import gov.usgs.volcanoes.valve3.Valve3;
@@ -11,10 +14,15 @@ import gov.usgs.volcanoes.vdx.data.MetaDatum;
 import gov.usgs.volcanoes.vdx.data.SuppDatum;
 
 import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.imageio.ImageIO;
 import javax.servlet.http.HttpServletRequest;
 
 /**
@@ -86,6 +94,15 @@ public class Valve3Plot extends Result {
   protected List<SuppDatum> suppdata;
   protected List<MetaDatum> metadata;
 
+  // xml of components, suppdata and metadata when plot was restored from cache
+  private String cachedContent = null;
+
+  // encoded image when plot is delivered from memory instead of a temporary file
+  private boolean inMemory = false;
+  private byte[] image;
+  private String imageId;
+  private ImageStore imageStore;
+
   /**
    * Constructor.
    *
@@ -196,11 +213,12 @@ public class Valve3Plot extends Result {
   /**
    * Getter for local file name.
    *
-   * @return full file name to generate plot image. If not set return random file name.
+   * @return full file name to generate plot image. If not set return new unique file name.
    */
   public String getLocalFilename() {
     if (filename == null) {
-      filename = PlotHandler.getRandomFilename(plotFormat.extension);
+      filename = Valve3.getInstance().getResultStore().newFilename("img",
+                                                                   "." + plotFormat.extension);
     }
 
     return Valve3.getInstance().getApplicationPath() + File.separatorChar + filename;
@@ -221,9 +239,93 @@ public class Valve3Plot extends Result {
    * @return short file name to generate plot image as URL
    */
   public String getUrlFilename() {
+    if (inMemory) {
+      return "valve3.jsp?a=img&id=" + imageId;
+    }
     return filename.replace(File.separatorChar, '/');
   }
 
+  /**
+   * Setter for in-memory delivery. Only png images are kept in memory; other formats are
+   * always written to a file.
+   *
+   * @param m true to keep the encoded image in memory
+   */
+  public void setInMemory(boolean m) {
+    inMemory = m && plotFormat == OutputType.PNG;
+  }
+
+  /**
+   * Getter for in-memory delivery flag.
+   *
+   * @return true if image is kept in memory rather than in {@link #getLocalFilename()}
+   */
+  public boolean isInMemory() {
+    return inMemory;
+  }
+
+  /**
+   * Render plot and keep it as encoded png image.
+   *
+   * @throws PlotException if plot can't be rendered or encoded
+   */
+  public void encodeImage() throws PlotException {
+    BufferedImage bi = new BufferedImage(plot.getWidth(), plot.getHeight(),
+                                         BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = bi.createGraphics();
+    try {
+      plot.render(g);
+    } finally {
+      g.dispose();
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+    try {
+      ImageIO.write(bi, "png", out);
+    } catch (IOException e) {
+      throw new PlotException(e.getMessage());
+    }
+    image = out.toByteArray();
+  }
+
+  /**
+   * Getter for encoded image.
+   *
+   * @return image, null if plot is delivered as file
+   */
+  public byte[] getImage() {
+    return image;
+  }
+
+  /**
+   * Setter for encoded image.
+   *
+   * @param img encoded png image
+   */
+  public void setImage(byte[] img) {
+    image = img;
+  }
+
+  /**
+   * Put encoded image into store, so that the xml or html wrapper can reference it. Plain png
+   * output is written to the response directly and isn't stored. Images the store can't hold
+   * are written to a file instead.
+   *
+   * @param store image store
+   * @throws IOException if image file can't be written
+   */
+  public void storeImage(ImageStore store) throws IOException {
+    if (inMemory && image != null && outputType != OutputType.PNG) {
+      imageId = store.put(new PlotImage(image, plotFormat.mimeType));
+      if (imageId != null) {
+        imageStore = store;
+      } else {
+        Valve3.getInstance().getResultStore().write(getLocalFilename(), image);
+        inMemory = false;
+        image = null;
+      }
+    }
+  }
+
   /**
    * Does nothing.
    *
@@ -305,6 +407,15 @@ public class Valve3Plot extends Result {
     isCombineable = e;
   }
 
+  /**
+   * Getter for plot combineable flag.
+   *
+   * @return "plot is combineable"
+   */
+  public boolean getCombineable() {
+    return isCombineable;
+  }
+
   /**
    * Getter for waveform plot flag.
    *
@@ -333,10 +444,30 @@ public class Valve3Plot extends Result {
   }
 
   /**
-   * Delete file with generated plot image from file system.
+   * Yield size of plot image.
+   *
+   * @return size in bytes
+   */
+  public long getSize() {
+    if (inMemory) {
+      return image == null ? 0 : image.length;
+    } else if (filename != null) {
+      return new File(getLocalFilename()).length();
+    }
+    return 0;
+  }
+
+  /**
+   * Delete file with generated plot image from file system, or drop in-memory image.
    */
   public void delete() {
-    new File(getLocalFilename()).delete();
+    if (inMemory) {
+      if (imageStore != null) {
+        imageStore.remove(imageId);
+      }
+    } else if (filename != null) {
+      Valve3.getInstance().getResultStore().delete(getLocalFilename());
+    }
   }
 
   /**
@@ -348,7 +479,7 @@ public class Valve3Plot extends Result {
     StringBuffer sb = new StringBuffer();
     sb.append("\t<plot>\n");
     sb.append("\t\t<url><![CDATA[" + url + "]]></url>\n");
-    sb.append("\t\t<file>" + getUrlFilename() + "</file>\n");
+    sb.append("\t\t<file>" + getUrlFilename().replace("&", "&amp;") + "</file>\n");
     sb.append("\t\t<title>" + title + "</title>\n");
     sb.append("\t\t<width>" + width + "</width>\n");
     sb.append("\t\t<height>" + height + "</height>\n");
@@ -356,7 +487,21 @@ public class Valve3Plot extends Result {
     sb.append("\t\t<combined>" + isCombined + "</combined>\n");
     sb.append("\t\t<combineable>" + isCombineable + "</combineable>\n");
     sb.append("\t\t<waveform>" + isWaveform + "</waveform>\n");
+    sb.append(getContentXml());
+    sb.append("\t</plot>");
+    return toXml("plot", sb.toString());
+  }
 
+  /**
+   * Yield XML representation of plot content: components, supplementary data and metadata.
+   *
+   * @return XML representation of plot content
+   */
+  public String getContentXml() {
+    if (cachedContent != null) {
+      return cachedContent;
+    }
+    StringBuffer sb = new StringBuffer();
     for (PlotComponent pc : components) {
       sb.append(pc.toXml());
     }
@@ -366,8 +511,23 @@ public class Valve3Plot extends Result {
     for (MetaDatum md : metadata) {
       sb.append(md.toXml());
     }
-    sb.append("\t</plot>");
-    return toXml("plot", sb.toString());
+    return sb.toString();
+  }
+
+  /**
+   * Fill plot information from previously rendered plot. Image should be written to
+   * {@link #getLocalFilename()} or set with {@link #setImage} by caller.
+   *
+   * @param entry cached plot
+   */
+  public void restore(PlotCache.Entry entry) {
+    title = entry.title;
+    width = entry.width;
+    height = entry.height;
+    isExportable = entry.exportable;
+    isCombineable = entry.combineable;
+    isWaveform = entry.waveform;
+    cachedContent = entry.content;
   }
 
   /**
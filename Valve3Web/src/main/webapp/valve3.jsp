@@ -39,7 +39,7 @@ Initial commit.
 		switch(plot.getOutputType())
 		{
 			case XML:
-				out.println(plot.toXml());
+				Compression.writeText(request, response, plot.toXml());
 				break;
 			case PS:
 				String fileName = plot.getTitle().replace(" ", "_") + ".ps";
@@ -47,12 +47,18 @@ Initial commit.
 				/* fallthrough */
 			case PNG:
 				OutputStream os = response.getOutputStream();
-				InputStream is = new BufferedInputStream(new FileInputStream(plot.getLocalFilename()));
-				byte[] buf = new byte[128 * 1024];
-				int n;
-				while ((n = is.read(buf)) != -1)
+				if (plot.isInMemory())
 				{
-					os.write(buf, 0, n);
+					byte[] img = plot.getImage();
+					if (img != null)
+					{
+						response.setContentLength(img.length);
+						os.write(img);
+					}
+				}
+				else
+				{
+					Valve3.getInstance().getResultStore().copy(plot.getLocalFilename(), os);
 				}
 				os.flush();
 				os.close();
@@ -64,37 +70,33 @@ Initial commit.
 <title><%= plot.getTitle() %></title>
 </head>
 <body>
-<img src="<%= plot.getFilename() %>">
+<img src="<%= plot.getUrlFilename().replace("&", "&amp;") %>">
 </body>
 </html>	
 				<%
 				break;
 		}
 	}
+	else if (result instanceof PlotImage)
+	{
+		PlotImage img = (PlotImage)result;
+		response.setContentType(img.getMimeType());
+		response.setContentLength(img.getData().length);
+		OutputStream os = response.getOutputStream();
+		os.write(img.getData());
+		os.flush();
+		os.close();
+	}
 	else if (result instanceof RawData)
 	{
 	   RawData rd = (RawData)result;
-	   String fn = rd.getLocalFilename();
-	   
-	   response.setContentType("application/octet-stream");
-	   response.setHeader("Content-disposition", "attachment;filename=" + fn.substring(fn.lastIndexOf("/") + 1));
-	   
-	   OutputStream os = response.getOutputStream();
-	   InputStream is = new BufferedInputStream(new FileInputStream(fn));
-	   byte[] buf = new byte[128 * 1024];
-	   int n;
-	   while ((n = is.read(buf)) != -1)
-	   {
-	       os.write(buf, 0, n);
-	   }
-	   os.flush();
-	   os.close();
+	   Download.send(request, response, rd);
 	}
 	else if (result instanceof Result)
 	{
 		Result res = (Result)result;
 		response.setContentType("text/xml");
-		out.println(res.toXml());
+		Compression.writeText(request, response, res.toXml());
 	}
 	else if (result instanceof String)
 	{